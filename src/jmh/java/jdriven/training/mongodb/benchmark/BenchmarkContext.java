@@ -0,0 +1,82 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.DemoApplication;
+import jdriven.training.mongodb.LocalMongod;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.MongoDBContainer;
+
+import java.util.List;
+
+/**
+ * Boots the application against a MongoDB instance for the duration of a benchmark. By default a
+ * container is started, but a running instance can be used instead by passing its connection
+ * string via -Dbenchmark.mongodb.url, or a {@link LocalMongod} is started when configured, which
+ * is what we do on machines without Docker.
+ */
+public class BenchmarkContext implements AutoCloseable {
+
+	private static final String URL_PROPERTY = "benchmark.mongodb.url";
+
+	private final Runnable stopDatabase;
+	private final ConfigurableApplicationContext context;
+
+	private BenchmarkContext(Runnable stopDatabase, String url, List<String> properties, Object... beans) {
+		this.stopDatabase = stopDatabase;
+		this.context = new SpringApplicationBuilder(DemoApplication.class)
+				.web(WebApplicationType.NONE)
+				.properties(
+						"mongodb.url=" + url,
+						"mongodb.database=benchmark"
+				)
+				.properties(properties.toArray(String[]::new))
+				.initializers(context -> {
+					for (var bean : beans) {
+						context.getBeanFactory().registerSingleton(bean.getClass().getName(), bean);
+					}
+				})
+				.run();
+	}
+
+	/**
+	 * Starts the application, with the given objects registered as additional beans, for example a
+	 * CommandListener to observe the traffic to MongoDB.
+	 */
+	public static BenchmarkContext start(Object... beans) {
+		return start(List.of(), beans);
+	}
+
+	/**
+	 * Starts the application with additional properties, such as "mongodb.metrics.enabled=false", to
+	 * compare configurations.
+	 */
+	public static BenchmarkContext start(List<String> properties, Object... beans) {
+		var url = System.getProperty(URL_PROPERTY);
+		if (url != null) {
+			return new BenchmarkContext(null, url, properties, beans);
+		}
+
+		var local = LocalMongod.fromSystemProperties();
+		if (local != null) {
+			local.start();
+			return new BenchmarkContext(local::close, local.getConnectionString(), properties, beans);
+		}
+
+		var container = new MongoDBContainer("mongo:6.0.3");
+		container.start();
+		return new BenchmarkContext(container::stop, container.getConnectionString(), properties, beans);
+	}
+
+	public <T> T bean(Class<T> type) {
+		return context.getBean(type);
+	}
+
+	@Override
+	public void close() {
+		context.close();
+		if (stopDatabase != null) {
+			stopDatabase.run();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationEntry;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compares the nightly partner-feed import via {@link ReservationRepository#saveAll(Stream, int)}
+ * with saving the same reservations one at a time. Scores are reported in reservations per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BulkIngestBenchmark {
+
+	private static final int DOCUMENTS = 10_000;
+
+	@Param({"100", "1000", "5000"})
+	private int batchSize;
+
+	private BenchmarkContext context;
+	private ReservationRepository repository;
+	private MongoTemplate mongo;
+
+	@Setup(Level.Trial)
+	public void start() {
+		context = BenchmarkContext.start();
+		repository = context.bean(ReservationRepository.class);
+		mongo = context.bean(MongoTemplate.class);
+	}
+
+	@TearDown(Level.Iteration)
+	public void clear() {
+		mongo.dropCollection(ReservationEntity.class);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		context.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DOCUMENTS)
+	public Object perDocumentSave() {
+		return entries().map(repository::save).toList();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DOCUMENTS)
+	public Object bulkSaveAll() {
+		return repository.saveAll(entries(), batchSize);
+	}
+
+	private static Stream<ReservationEntry> entries() {
+		return IntStream.range(0, DOCUMENTS).mapToObj(i -> ReservationEntry.builder()
+				.price(100L + i % 400)
+				.date(LocalDate.of(2023, 1, 1).plusDays(i % 365))
+				.chalet("chalet-" + i % 200)
+				.booker("booker-" + i)
+				.guests(List.of("kai", "jack"))
+				.hasPaid(i % 2 == 0)
+				.hasInsurance(i % 3 == 0)
+				.build());
+	}
+}
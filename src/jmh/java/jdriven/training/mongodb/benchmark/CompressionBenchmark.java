@@ -0,0 +1,119 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.persistence.ReservationInsuranceClaims;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Compares the throughput of our largest replies with and without wire compression. Besides
+ * operations per second, replyBytes reports the bytes per operation as decoded by the driver, and
+ * wireBytes those MongoDB actually sent after compression, according to serverStatus. The server
+ * counts the traffic of all its clients, so wireBytes is only meaningful on a dedicated instance.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CompressionBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Data {
+
+		@Param({"none", "snappy", "zstd", "zlib"})
+		public String compressor;
+
+		final ReplyBytes replyBytes = new ReplyBytes();
+		BenchmarkContext context;
+		MongoTemplate mongo;
+		ReservationRepository repository;
+		ReservationInsuranceClaims claims;
+		final List<String> chalets = IntStream.range(0, ReservationDataSet.CHALETS).mapToObj(i -> "chalet-" + i).toList();
+
+		@Setup(Level.Trial)
+		public void start() {
+			var properties = compressor.equals("none") ? List.<String>of() : List.of("mongodb.network.compressors=" + compressor);
+			context = BenchmarkContext.start(properties, replyBytes);
+			mongo = context.bean(MongoTemplate.class);
+			repository = context.bean(ReservationRepository.class);
+			claims = context.bean(ReservationInsuranceClaims.class);
+			new ReservationDataSet(Integer.getInteger("benchmark.reservations", 10_000)).seed(mongo);
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() {
+			context.close();
+		}
+
+		long wireBytes() {
+			var network = mongo.executeCommand(new Document("serverStatus", 1)).get("network", Document.class);
+			return ((Number) network.get("physicalBytesOut")).longValue();
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Traffic {
+
+		public long replyBytes;
+		public long wireBytes;
+		private long operations;
+		private long replyStart;
+		private long wireStart;
+		private final Random random = new Random();
+
+		@Setup(Level.Iteration)
+		public void reset(Data data) {
+			replyStart = data.replyBytes.total();
+			wireStart = data.wireBytes();
+			operations = 0;
+		}
+
+		@TearDown(Level.Iteration)
+		public void report(Data data) {
+			var wire = data.wireBytes();
+			replyBytes = operations == 0 ? 0 : (data.replyBytes.total() - replyStart) / operations;
+			wireBytes = operations == 0 ? 0 : (wire - wireStart) / operations;
+		}
+
+		void operation() {
+			operations++;
+		}
+	}
+
+	@Benchmark
+	public int findAll(Data data, Traffic traffic) {
+		traffic.operation();
+		return data.repository.findAll().size();
+	}
+
+	@Benchmark
+	public Object checkinList(Data data, Traffic traffic) {
+		traffic.operation();
+		return data.repository.pipelineExample_checkinList(ReservationDataSet.date(traffic.random));
+	}
+
+	@Benchmark
+	public long insuranceClaims(Data data, Traffic traffic) {
+		traffic.operation();
+		var from = ReservationDataSet.SEASON_START;
+		var to = from.plusDays(ReservationDataSet.SEASON_DAYS);
+		try (var result = data.claims.stream(data.chalets, from, to, ReservationDataSet.CHALETS, ReservationDataSet.SEASON_DAYS)) {
+			return result.count();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.config.VirtualThreads;
+import jdriven.training.mongodb.persistence.ReactiveReservationRepository;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Simulates a burst of concurrent check-in lookups. The blocking repository is limited to the
+ * threads of a servlet container sized pool, while the reactive repository keeps all requests
+ * in flight without a thread per request. On Java 21 and later the blocking repository is also
+ * run on virtual threads, where only the concurrency limiter bounds the number of requests in
+ * flight. Scores are reported in completed bursts per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConcurrencyBenchmark {
+
+	private static final int SERVLET_THREADS = 200;
+
+	@Param({"100", "1000", "10000"})
+	private int concurrentRequests;
+
+	private BenchmarkContext context;
+	private ReservationRepository repository;
+	private ReactiveReservationRepository reactiveRepository;
+	private ExecutorService servletThreads;
+	private ExecutorService virtualThreads;
+	private List<UUID> ids;
+
+	@Setup(Level.Trial)
+	public void start() {
+		context = BenchmarkContext.start();
+		repository = context.bean(ReservationRepository.class);
+		reactiveRepository = context.bean(ReactiveReservationRepository.class);
+		servletThreads = Executors.newFixedThreadPool(SERVLET_THREADS);
+		virtualThreads = VirtualThreads.available() ? VirtualThreads.newExecutor() : null;
+
+		var mongo = context.bean(MongoTemplate.class);
+		new ReservationDataSet(Integer.getInteger("benchmark.reservations", 10_000)).seed(mongo);
+
+		var sample = new Query().limit(concurrentRequests);
+		sample.fields().include("_id");
+		ids = mongo.find(sample, ReservationEntity.class).stream().map(ReservationEntity::id).toList();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		servletThreads.shutdownNow();
+		if (virtualThreads != null) {
+			virtualThreads.shutdownNow();
+		}
+		context.close();
+	}
+
+	@Benchmark
+	public Object blocking() throws InterruptedException {
+		return servletThreads.invokeAll(lookups());
+	}
+
+	@Benchmark
+	public Object blockingOnVirtualThreads() throws InterruptedException {
+		if (virtualThreads == null) {
+			throw new IllegalStateException("Virtual threads require Java 21 or later");
+		}
+		return virtualThreads.invokeAll(lookups());
+	}
+
+	@Benchmark
+	public Object reactive() {
+		return Flux.range(0, concurrentRequests)
+				.flatMap(i -> reactiveRepository.find(ids.get(i % ids.size())), concurrentRequests)
+				.count()
+				.block();
+	}
+
+	private List<Callable<Object>> lookups() {
+		return IntStream.range(0, concurrentRequests)
+				.mapToObj(i -> (Callable<Object>) () -> repository.find(ids.get(i % ids.size())))
+				.toList();
+	}
+}
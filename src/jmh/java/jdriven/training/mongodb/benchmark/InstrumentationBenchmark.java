@@ -0,0 +1,75 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of our metrics on the hot path, by running the most frequent repository
+ * operations with and without mongodb.metrics.enabled. The difference between both should be within
+ * the error of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InstrumentationBenchmark {
+
+	@Param({"false", "true"})
+	private boolean metrics;
+
+	private BenchmarkContext context;
+	private ReservationRepository repository;
+	private List<UUID> ids;
+	private List<ReservationEntity> reservations;
+
+	@Setup(Level.Trial)
+	public void start() {
+		context = BenchmarkContext.start(List.of("mongodb.metrics.enabled=" + metrics));
+		repository = context.bean(ReservationRepository.class);
+
+		var mongo = context.bean(MongoTemplate.class);
+		new ReservationDataSet(Integer.getInteger("benchmark.reservations", 10_000)).seed(mongo);
+		reservations = mongo.find(new Query().limit(1_000), ReservationEntity.class);
+		ids = reservations.stream().map(ReservationEntity::id).toList();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		context.close();
+	}
+
+	@Benchmark
+	public Object find() {
+		return repository.find(ids.get(ThreadLocalRandom.current().nextInt(ids.size())));
+	}
+
+	@Benchmark
+	public Object queryExample_mostExpensive() {
+		return repository.queryExample_mostExpensive(random().date());
+	}
+
+	@Benchmark
+	public Object findPageByDate() {
+		return repository.findPageByDate(random(), 50);
+	}
+
+	private ReservationEntity random() {
+		return reservations.get(ThreadLocalRandom.current().nextInt(reservations.size()));
+	}
+}
@@ -0,0 +1,66 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.persistence.ReservationInsuranceClaims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Requests the insurance claims of every chalet over the whole season, as our insurer does. A single
+ * shard of all chalets and days equals running the pipeline of the exercise once, the other
+ * parameters split it into shards which are aggregated concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InsuranceClaimsBenchmark {
+
+	@Param({"500", "100", "25"})
+	private int chaletsPerShard;
+
+	@Param({"150", "31"})
+	private int daysPerShard;
+
+	private BenchmarkContext context;
+	private ReservationInsuranceClaims claims;
+	private List<String> chalets;
+
+	@Setup(Level.Trial)
+	public void start() {
+		context = BenchmarkContext.start();
+		claims = context.bean(ReservationInsuranceClaims.class);
+		new ReservationDataSet(Integer.getInteger("benchmark.reservations", 100_000)).seed(context.bean(MongoTemplate.class));
+
+		chalets = new ArrayList<>(IntStream.range(0, ReservationDataSet.CHALETS).mapToObj(i -> "chalet-" + i).toList());
+		Collections.shuffle(chalets, new Random(42));
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		context.close();
+	}
+
+	@Benchmark
+	public long claims() {
+		var from = ReservationDataSet.SEASON_START;
+		var to = from.plusDays(ReservationDataSet.SEASON_DAYS);
+		try (var result = claims.stream(chalets, from, to, chaletsPerShard, daysPerShard)) {
+			return result.count();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package jdriven.training.mongodb.benchmark;
+
+import com.mongodb.MongoClientSettings;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.codecs.ReservationConverters;
+import jdriven.training.mongodb.persistence.codecs.ReservationEntityCodec;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares mapping a reservation from and to BSON by reflection, as MongoTemplate does by default,
+ * with the hand-written converters and codecs. Does not require a database; run with the gc profiler
+ * to compare allocation rates as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MappingBenchmark {
+
+	private final Codec<Document> documentCodec = CodecRegistries
+			.withUuidRepresentation(MongoClientSettings.getDefaultCodecRegistry(), UuidRepresentation.STANDARD)
+			.get(Document.class);
+	private final ReservationEntityCodec reservationCodec = new ReservationEntityCodec();
+
+	private MappingMongoConverter reflective;
+	private MappingMongoConverter converters;
+	private ReservationEntity reservation;
+	private byte[] bson;
+
+	@Setup
+	public void setup() {
+		reflective = converter(new MongoCustomConversions(List.of()));
+		converters = converter(new MongoCustomConversions(ReservationConverters.all()));
+		reservation = ReservationEntity.builder()
+				.id(UUID.randomUUID())
+				.price(325L)
+				.date(LocalDate.of(2023, 1, 1))
+				.chalet("120B")
+				.booker("alex")
+				.guests(List.of("kai", "jack", "rebecca"))
+				.hasPaid(false)
+				.hasInsurance(true)
+				.damages(List.of("broken window"))
+				.build();
+		bson = (byte[]) encodeWithCodec();
+	}
+
+	@Benchmark
+	public Object decodeReflective() {
+		return reflective.read(ReservationEntity.class, decodeDocument());
+	}
+
+	@Benchmark
+	public Object decodeWithConverters() {
+		return converters.read(ReservationEntity.class, decodeDocument());
+	}
+
+	@Benchmark
+	public Object decodeWithCodec() {
+		return reservationCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+	}
+
+	@Benchmark
+	public Object encodeReflective() {
+		var document = new Document();
+		reflective.write(reservation, document);
+		var buffer = new BasicOutputBuffer();
+		documentCodec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+		return buffer.toByteArray();
+	}
+
+	@Benchmark
+	public Object encodeWithCodec() {
+		var buffer = new BasicOutputBuffer();
+		reservationCodec.encode(new BsonBinaryWriter(buffer), reservation, EncoderContext.builder().build());
+		return buffer.toByteArray();
+	}
+
+	private Document decodeDocument() {
+		return documentCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+	}
+
+	private static MappingMongoConverter converter(MongoCustomConversions conversions) {
+		var mappingContext = new MongoMappingContext();
+		mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+		mappingContext.afterPropertiesSet();
+
+		var converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+		converter.setCustomConversions(conversions);
+		converter.afterPropertiesSet();
+		return converter;
+	}
+}
@@ -0,0 +1,101 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the full reservation queries with their summary variants used by our list screens. Besides
+ * latency, the replyBytes counter reports the number of bytes received per operation.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProjectionBenchmark {
+
+	private static final int PAGE_SIZE = 50;
+
+	@State(Scope.Benchmark)
+	public static class Data {
+
+		final ReplyBytes replyBytes = new ReplyBytes();
+		BenchmarkContext context;
+		ReservationRepository repository;
+
+		@Setup(Level.Trial)
+		public void start() {
+			context = BenchmarkContext.start(replyBytes);
+			repository = context.bean(ReservationRepository.class);
+			new ReservationDataSet(Integer.getInteger("benchmark.reservations", 10_000)).seed(context.bean(MongoTemplate.class));
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() {
+			context.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Traffic {
+
+		public long replyBytes;
+		private long operations;
+		private long start;
+		private final Random random = new Random();
+
+		@Setup(Level.Iteration)
+		public void reset(Data data) {
+			start = data.replyBytes.total();
+			operations = 0;
+		}
+
+		@TearDown(Level.Iteration)
+		public void report(Data data) {
+			replyBytes = operations == 0 ? 0 : (data.replyBytes.total() - start) / operations;
+		}
+
+		void operation() {
+			operations++;
+		}
+
+		LocalDate date() {
+			operation();
+			return ReservationDataSet.date(random);
+		}
+	}
+
+	@Benchmark
+	public Object mostExpensive(Data data, Traffic traffic) {
+		return data.repository.queryExample_mostExpensive(traffic.date());
+	}
+
+	@Benchmark
+	public Object mostExpensiveSummary(Data data, Traffic traffic) {
+		return data.repository.querySummary_mostExpensive(traffic.date());
+	}
+
+	@Benchmark
+	public Object pageByDate(Data data, Traffic traffic) {
+		traffic.operation();
+		return data.repository.findPageByDate(null, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public Object summaryPageByDate(Data data, Traffic traffic) {
+		traffic.operation();
+		return data.repository.findSummaryPageByDate(null, PAGE_SIZE);
+	}
+}
@@ -0,0 +1,31 @@
+package jdriven.training.mongodb.benchmark;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the size of the replies received from MongoDB, as an approximation of the bytes sent over
+ * the wire. Encoding each reply again is not free, so only register it in benchmarks that measure it.
+ */
+public class ReplyBytes implements CommandListener {
+
+	private final BsonDocumentCodec codec = new BsonDocumentCodec();
+	private final AtomicLong total = new AtomicLong();
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		var buffer = new BasicOutputBuffer();
+		codec.encode(new BsonBinaryWriter(buffer), event.getResponse(), EncoderContext.builder().build());
+		total.addAndGet(buffer.getSize());
+	}
+
+	public long total() {
+		return total.get();
+	}
+}
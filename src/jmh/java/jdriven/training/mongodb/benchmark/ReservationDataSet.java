@@ -0,0 +1,104 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates a deterministic set of reservations resembling our production data: a few chalets are
+ * far more popular than the rest, most stays start on a Saturday and everything happens within the
+ * winter season. A small share of the reservations has damages filed.
+ */
+public class ReservationDataSet {
+
+	public static final LocalDate SEASON_START = LocalDate.of(2023, 12, 1);
+	public static final int SEASON_DAYS = 150;
+	public static final int CHALETS = 500;
+
+	/**
+	 * Records which data set the reservation collection holds, since benchmarks that save or delete
+	 * reservations change its size.
+	 */
+	public static final String MARKER_COLLECTION = "benchmark-data-set";
+
+	private static final int BATCH_SIZE = 5_000;
+	private static final List<String> DAMAGES = List.of("broken window", "broken sink", "broken lamp", "stained carpet");
+
+	private final int size;
+
+	public ReservationDataSet(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Inserts the data set, unless it was already seeded with the same size and layout, which allows
+	 * reusing a seeded database between benchmark runs. The reservations are removed rather than the
+	 * collection dropped, such that the indexes created at startup remain.
+	 */
+	public void seed(MongoTemplate mongo) {
+		var marker = new Document("_id", "reservations")
+				.append("size", size)
+				.append("layout", ReservationFields.of(mongo.getConverter()).toString());
+		if (marker.equals(mongo.findById("reservations", Document.class, MARKER_COLLECTION))) {
+			return;
+		}
+
+		mongo.remove(new Query(), ReservationEntity.class);
+		var random = new Random(42);
+		var batch = new ArrayList<ReservationEntity>(BATCH_SIZE);
+		for (int i = 0; i < size; i++) {
+			batch.add(reservation(random));
+			if (batch.size() == BATCH_SIZE || i == size - 1) {
+				mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, ReservationEntity.class).insert(batch).execute();
+				batch.clear();
+			}
+		}
+		mongo.save(marker, MARKER_COLLECTION);
+	}
+
+	/**
+	 * Picks a chalet with the same skew as the data set, so lookups favour the popular chalets.
+	 */
+	public static String chalet(Random random) {
+		return "chalet-" + (int) (CHALETS * Math.pow(random.nextDouble(), 3));
+	}
+
+	/**
+	 * Picks a date within the season, where half of the dates are a Saturday.
+	 */
+	public static LocalDate date(Random random) {
+		var date = SEASON_START.plusDays(random.nextInt(SEASON_DAYS));
+		if (!random.nextBoolean()) {
+			return date;
+		}
+		var saturday = date.with(TemporalAdjusters.nextOrSame(DayOfWeek.SATURDAY));
+		// The last days of the season have no next Saturday within the season
+		return saturday.isBefore(SEASON_START.plusDays(SEASON_DAYS)) ? saturday : date.with(TemporalAdjusters.previous(DayOfWeek.SATURDAY));
+	}
+
+	private static ReservationEntity reservation(Random random) {
+		var hasInsurance = random.nextInt(10) < 3;
+		return ReservationEntity.builder()
+				.id(UUID.randomUUID())
+				.price(100L + random.nextInt(900))
+				.date(date(random))
+				.chalet(chalet(random))
+				.booker("booker-" + random.nextInt(1_000_000))
+				.guests(List.of("guest-" + random.nextInt(1_000_000), "guest-" + random.nextInt(1_000_000)))
+				.hasPaid(random.nextBoolean())
+				.hasInsurance(hasInsurance)
+				.damages(random.nextInt(20) == 0 ? List.of(DAMAGES.get(random.nextInt(DAMAGES.size()))) : null)
+				.build();
+	}
+}
@@ -0,0 +1,148 @@
+package jdriven.training.mongodb.benchmark;
+
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationEntry;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDate;
+import java.time.Year;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks every public operation of {@link ReservationRepository} against a seeded data set.
+ * The number of reservations is set with -Pbenchmark.reservations (default 10.000, up to 10.000.000).
+ * Benchmarks of exercises that have not been implemented yet fail and are reported as such.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReservationRepositoryBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Data {
+
+		private static final int SAMPLE_SIZE = 1_000;
+
+		BenchmarkContext context;
+		ReservationRepository repository;
+		List<UUID> ids;
+
+		@Setup(Level.Trial)
+		public void start() {
+			context = BenchmarkContext.start();
+			repository = context.bean(ReservationRepository.class);
+
+			var mongo = context.bean(MongoTemplate.class);
+			new ReservationDataSet(Integer.getInteger("benchmark.reservations", 10_000)).seed(mongo);
+
+			var sample = new Query().limit(SAMPLE_SIZE);
+			sample.fields().include("_id");
+			ids = mongo.find(sample, ReservationEntity.class).stream().map(ReservationEntity::id).toList();
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() {
+			context.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Parameters {
+
+		private final Random random = new Random();
+
+		UUID id(Data data) {
+			return data.ids.get(random.nextInt(data.ids.size()));
+		}
+
+		LocalDate date() {
+			return ReservationDataSet.date(random);
+		}
+
+		List<String> chalets(int count) {
+			return IntStream.range(0, count).mapToObj(i -> ReservationDataSet.chalet(random)).distinct().toList();
+		}
+
+		ReservationEntry entry() {
+			return ReservationEntry.builder()
+					.price(100L + random.nextInt(900))
+					.date(date())
+					.chalet(ReservationDataSet.chalet(random))
+					.booker("booker-" + random.nextInt(1_000_000))
+					.guests(List.of("kai", "jack"))
+					.hasPaid(false)
+					.hasInsurance(random.nextBoolean())
+					.build();
+		}
+	}
+
+	@Benchmark
+	public Object find(Data data, Parameters parameters) {
+		return data.repository.find(parameters.id(data));
+	}
+
+	@Benchmark
+	public Object save(Data data, Parameters parameters) {
+		return data.repository.save(parameters.entry());
+	}
+
+	@Benchmark
+	public Object queryExample_mostExpensive(Data data, Parameters parameters) {
+		return data.repository.queryExample_mostExpensive(parameters.date());
+	}
+
+	@Benchmark
+	public Object queryExercise_damageClaims(Data data, Parameters parameters) {
+		return data.repository.queryExercise_damageClaims(ReservationDataSet.chalet(parameters.random));
+	}
+
+	@Benchmark
+	public Object queryExercise_pageAndSort(Data data, Parameters parameters) {
+		return data.repository.queryExercise_pageAndSort(20, parameters.random.nextInt(10), true, "booker-1");
+	}
+
+	@Benchmark
+	public void updateExample_bookerCorrection(Data data, Parameters parameters) {
+		data.repository.updateExample_bookerCorrection(parameters.id(data), "booker-" + parameters.random.nextInt(1_000_000));
+	}
+
+	@Benchmark
+	public void updateExercise_includeNewGuests(Data data, Parameters parameters) {
+		data.repository.updateExercise_includeNewGuests(parameters.id(data), "guest");
+	}
+
+	@Benchmark
+	public void updateExercise_anniversaryDiscount(Data data, Parameters parameters) {
+		data.repository.updateExercise_anniversaryDiscount(parameters.date());
+	}
+
+	@Benchmark
+	public Object pipelineExample_checkinList(Data data, Parameters parameters) {
+		return data.repository.pipelineExample_checkinList(parameters.date());
+	}
+
+	@Benchmark
+	public Object pipelineExercise_incomeGenerated(Data data, Parameters parameters) {
+		var date = parameters.date();
+		return data.repository.pipelineExercise_incomeGenerated(Year.of(date.getYear()), date.getMonth());
+	}
+
+	@Benchmark
+	public Object pipelineExercise_insuranceClaims(Data data, Parameters parameters) {
+		return data.repository.pipelineExercise_insuranceClaims(parameters.chalets(50), parameters.date());
+	}
+}
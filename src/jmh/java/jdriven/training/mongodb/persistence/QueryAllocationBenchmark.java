@@ -0,0 +1,98 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.benchmark.BenchmarkContext;
+import jdriven.training.mongodb.benchmark.ReservationDataSet;
+import jdriven.training.mongodb.persistence.views.ReservationCheckin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building queryExample_mostExpensive and pipelineExample_checkinList from scratch on every
+ * call, as the repository used to, with the prepared templates it uses now. Both variants query the
+ * reservation collection through the same MongoTemplate, without the limiter, metrics and archive
+ * of the repository. Run with the gc profiler, which our jmh configuration enables, and compare
+ * gc.alloc.rate.norm: the bytes allocated per call. Note that the prepared variants decode the
+ * results with our codecs instead of the mapping of MongoTemplate.
+ * <p>
+ * Lives in the package of the repository, since the prepared templates are not public.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryAllocationBenchmark {
+
+	private BenchmarkContext context;
+	private MongoTemplate mongo;
+	private String collection;
+	private PreparedQuery<ReservationEntity> mostExpensive;
+	private PreparedAggregation<ReservationCheckin> checkinList;
+	private final Random random = new Random(42);
+
+	@Setup(Level.Trial)
+	public void start() {
+		context = BenchmarkContext.start();
+		mongo = context.bean(MongoTemplate.class);
+		collection = mongo.getCollectionName(ReservationEntity.class);
+		var fields = ReservationFields.of(mongo.getConverter());
+		mostExpensive = ReservationRepository.MOST_EXPENSIVE.get(fields);
+		checkinList = ReservationRepository.CHECKIN_LIST.get(fields);
+		new ReservationDataSet(Integer.getInteger("benchmark.reservations", 10_000)).seed(mongo);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		context.close();
+	}
+
+	@Benchmark
+	public Object mostExpensive_built() {
+		var query = new Query();
+		query.limit(10);
+		query.with(Sort.by(Sort.Order.desc("price")));
+		query.addCriteria(Criteria.where("price").gt(0));
+		query.addCriteria(Criteria.where("date").is(date()));
+		return mongo.find(query, ReservationEntity.class, collection);
+	}
+
+	@Benchmark
+	public Object mostExpensive_prepared() {
+		return mostExpensive.find(mongo, collection, date());
+	}
+
+	@Benchmark
+	public Object checkinList_built() {
+		var date = date();
+		var pipeline = Aggregation.newAggregation(ReservationEntity.class,
+				Aggregation.match(Criteria.where("date").is(date)),
+				Aggregation.group("date").addToSet("booker").as("bookers"),
+				Aggregation.addFields().addField("date").withValue(date).build()
+		);
+		return mongo.aggregate(pipeline, collection, ReservationCheckin.class).getUniqueMappedResult();
+	}
+
+	@Benchmark
+	public Object checkinList_prepared() {
+		var result = checkinList.aggregate(mongo, collection, date());
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	private LocalDate date() {
+		return ReservationDataSet.date(random);
+	}
+}
@@ -0,0 +1,20 @@
+package jdriven.training.mongodb.config;
+
+import com.mongodb.ReadPreference;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+/**
+ * MongoTemplate for reports, which reads from secondaries when available, such that heavy
+ * aggregations don't compete with bookings on the primary. Reads may lag behind by at most the
+ * configured max staleness, so only use it where slightly outdated results are acceptable.
+ * Writes, including the output of $merge and $out, always go to the primary.
+ */
+public class AnalyticsMongoTemplate extends MongoTemplate {
+
+	public AnalyticsMongoTemplate(MongoDatabaseFactory factory, MongoConverter converter, ReadPreference readPreference) {
+		super(factory, converter);
+		setReadPreference(readPreference);
+	}
+}
@@ -0,0 +1,180 @@
+package jdriven.training.mongodb.config;
+
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerType;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.lang.Nullable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the number of documents returned per query, mongodb.driver.commands.documents, tagged by
+ * command and collection, and the number of commands served per node, mongodb.driver.commands.served,
+ * tagged by command, server and its role, such that we can see whether reports are actually served by
+ * secondaries. It also logs commands that take at least the slow query threshold, unless it is zero.
+ * The log contains the shape of the filter or pipeline only, with every value replaced by "?", so
+ * names of bookers and guests never end up in our logs.
+ * <p>
+ * The driver only allows access to the command while it starts, so we keep a copy of each query in
+ * flight, and only shape the few that turn out to be slow. Other commands, such as inserts, are not
+ * kept at all, nor is anything kept when slow queries are not logged. Meters are looked up once per
+ * combination of tags and kept, since building and registering them on every command is not free.
+ */
+@Slf4j
+public class MongoCommandMetrics implements CommandListener {
+
+	private static final BsonString VALUE = new BsonString("?");
+	private static final Set<String> SHAPED = Set.of("find", "aggregate", "count", "distinct", "findAndModify", "update", "delete");
+
+	private final MeterRegistry registry;
+	private final long thresholdNanos;
+	private final Map<Integer, BsonDocument> commands = new ConcurrentHashMap<>();
+	private final Map<Served, Counter> served = new ConcurrentHashMap<>();
+	private final Map<Documents, DistributionSummary> documents = new ConcurrentHashMap<>();
+
+	public MongoCommandMetrics(MeterRegistry registry, Duration slowQueryThreshold) {
+		this.registry = registry;
+		this.thresholdNanos = slowQueryThreshold.toNanos();
+	}
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		if (thresholdNanos > 0 && SHAPED.contains(event.getCommandName())) {
+			// The command is backed by a buffer the driver reuses once the command is sent
+			commands.put(event.getRequestId(), event.getCommand().clone());
+		}
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		var command = commands.remove(event.getRequestId());
+		recordServed(event.getCommandName(), event.getConnectionDescription(), "success");
+		var cursor = event.getResponse().get("cursor");
+		if (cursor != null && cursor.isDocument()) {
+			recordDocuments(event.getCommandName(), cursor.asDocument());
+		}
+		logIfSlow(event.getCommandName(), command, event.getElapsedTime(TimeUnit.NANOSECONDS), "succeeded");
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		var command = commands.remove(event.getRequestId());
+		recordServed(event.getCommandName(), event.getConnectionDescription(), "failure");
+		logIfSlow(event.getCommandName(), command, event.getElapsedTime(TimeUnit.NANOSECONDS), "failed");
+	}
+
+	private void recordServed(String command, ConnectionDescription connection, String outcome) {
+		var key = new Served(command, connection.getServerAddress().toString(), role(connection.getServerType()), outcome);
+		served.computeIfAbsent(key, tags -> Counter.builder("mongodb.driver.commands.served")
+						.description("Commands per node that served them")
+						.tag("command", tags.command())
+						.tag("server", tags.server())
+						.tag("role", tags.role())
+						.tag("outcome", tags.outcome())
+						.register(registry))
+				.increment();
+	}
+
+	private static String role(ServerType type) {
+		return switch (type) {
+			case REPLICA_SET_PRIMARY -> "primary";
+			case REPLICA_SET_SECONDARY -> "secondary";
+			case STANDALONE -> "standalone";
+			case SHARD_ROUTER -> "mongos";
+			default -> "other";
+		};
+	}
+
+	private void recordDocuments(String command, BsonDocument cursor) {
+		var batch = cursor.containsKey("firstBatch") ? cursor.get("firstBatch") : cursor.get("nextBatch");
+		if (batch == null || !batch.isArray()) {
+			return;
+		}
+		var namespace = cursor.getString("ns", VALUE).getValue();
+		var key = new Documents(command, namespace.substring(namespace.indexOf('.') + 1));
+		documents.computeIfAbsent(key, tags -> DistributionSummary.builder("mongodb.driver.commands.documents")
+						.description("Documents returned per query or getMore")
+						.tag("command", tags.command())
+						.tag("collection", tags.collection())
+						.publishPercentileHistogram()
+						.register(registry))
+				.record(batch.asArray().size());
+	}
+
+	private void logIfSlow(String name, @Nullable BsonDocument command, long elapsedNanos, String outcome) {
+		if (command != null && elapsedNanos >= thresholdNanos) {
+			var shape = shape(name, command);
+			if (shape != null) {
+				log.warn("Slow {} {} after {} ms: {}", name, outcome, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), shape.toJson());
+			}
+		}
+	}
+
+	/**
+	 * The collection and the shape of the filter of queries, updates and deletes, or null for other
+	 * commands. Of bulk updates and deletes, only the first statement is shaped, together with the
+	 * number of statements.
+	 */
+	static BsonDocument shape(String command, BsonDocument body) {
+		var shape = new BsonDocument(command, body.get(command, VALUE));
+		switch (command) {
+			case "find" -> {
+				shape.append("filter", shape(body.get("filter")));
+				if (body.containsKey("sort")) {
+					shape.append("sort", body.get("sort"));
+				}
+			}
+			case "aggregate" -> shape.append("pipeline", shape(body.get("pipeline")));
+			case "count", "distinct", "findAndModify" -> shape.append("query", shape(body.get("query")));
+			case "update" -> shapeStatements(shape, body.getArray("updates", new BsonArray()));
+			case "delete" -> shapeStatements(shape, body.getArray("deletes", new BsonArray()));
+			default -> {
+				return null;
+			}
+		}
+		return shape;
+	}
+
+	private static void shapeStatements(BsonDocument shape, BsonArray statements) {
+		shape.append("statements", new BsonString(String.valueOf(statements.size())));
+		if (!statements.isEmpty() && statements.get(0).isDocument()) {
+			shape.append("q", shape(statements.get(0).asDocument().get("q")));
+		}
+	}
+
+	private static BsonValue shape(BsonValue value) {
+		if (value == null) {
+			return new BsonDocument();
+		}
+		if (value.isDocument()) {
+			var shaped = new BsonDocument();
+			value.asDocument().forEach((key, nested) -> shaped.append(key, shape(nested)));
+			return shaped;
+		}
+		if (value.isArray() && !value.asArray().isEmpty() && value.asArray().get(0).isDocument()) {
+			var shaped = new BsonArray();
+			value.asArray().forEach(nested -> shaped.add(shape(nested)));
+			return shaped;
+		}
+		return VALUE;
+	}
+
+	private record Served(String command, String server, String role, String outcome) {}
+
+	private record Documents(String command, String collection) {}
+}
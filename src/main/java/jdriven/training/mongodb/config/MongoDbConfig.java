@@ -2,18 +2,43 @@ package jdriven.training.mongodb.config;
 
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.ConnectionPoolListener;
+import jdriven.training.mongodb.persistence.ReservationBudget;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import jdriven.training.mongodb.persistence.codecs.ReservationCodecProvider;
+import jdriven.training.mongodb.persistence.codecs.ReservationConverters;
 import org.bson.UuidRepresentation;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.CodecRegistryProvider;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
 
+import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 
@@ -33,29 +58,142 @@ public class MongoDbConfig {
 	}
 
 	@Bean
+	@Primary
 	MongoTemplate mongoTemplate(MongoClient mongoDbFactory) {
-		return new MongoTemplate(mongoDbFactory, properties.database());
+		var factory = new SimpleMongoClientDatabaseFactory(mongoDbFactory, properties.database());
+		var template = new MongoTemplate(factory, converter(new DefaultDbRefResolver(factory), factory));
+		template.setWriteConcernResolver(ReservationBudget::writeConcern);
+		return template;
 	}
 
+	@Bean
+	PreviousLayoutMongoTemplate previousLayoutMongoTemplate(MongoClient mongoDbFactory) {
+		var factory = new SimpleMongoClientDatabaseFactory(mongoDbFactory, properties.database());
+		var previous = ReservationFields.of(properties.schema().compact()).other();
+		var template = new PreviousLayoutMongoTemplate(factory, converter(new DefaultDbRefResolver(factory), factory, previous), properties.schema().migrating());
+		template.setWriteConcernResolver(ReservationBudget::writeConcern);
+		return template;
+	}
+
+	/**
+	 * Shares the client, and therefore the connection pools, with {@link #mongoTemplate}. The pools
+	 * are per node, so reports on secondaries don't take connections to the primary.
+	 */
+	@Bean
+	AnalyticsMongoTemplate analyticsMongoTemplate(MongoClient mongoDbFactory) {
+		var factory = new SimpleMongoClientDatabaseFactory(mongoDbFactory, properties.database());
+		var analytics = properties.analytics();
+		// The primary is the only read preference without a max staleness
+		var readPreference = analytics.readPreference().equalsIgnoreCase("primary")
+				? ReadPreference.primary()
+				: ReadPreference.valueOf(analytics.readPreference(), List.of(), analytics.maxStaleness().toMillis(), TimeUnit.MILLISECONDS);
+		return new AnalyticsMongoTemplate(factory, converter(new DefaultDbRefResolver(factory), factory), readPreference);
+	}
+
+	@Bean
+	MessageListenerContainer messageListenerContainer(MongoTemplate mongoTemplate) {
+		return new DefaultMessageListenerContainer(mongoTemplate);
+	}
+
+    @Bean
+	ReactiveMongoTemplate reactiveMongoTemplate(com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient) {
+		var factory = new SimpleReactiveMongoDatabaseFactory(reactiveMongoClient, properties.database());
+		return new ReactiveMongoTemplate(factory, converter(NoOpDbRefResolver.INSTANCE, factory));
+	}
+
+    @Bean
+	MongoClient mongoClient(ObjectProvider<CommandListener> commandListeners, ObjectProvider<ConnectionPoolListener> poolListeners) {
+        try {
+            var settings = settings(commandListeners);
+            poolListeners.orderedStream().forEach(listener -> settings.applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(listener)));
+            return MongoClients.create(settings.build());
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not start application due to MongoDb startup failure", e);
+        }
+    }
+
     @Bean
-	MongoClient mongoClient() {
+	com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient(ObjectProvider<CommandListener> commandListeners) {
+        try {
+            return com.mongodb.reactivestreams.client.MongoClients.create(settings(commandListeners).build());
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not start application due to MongoDb startup failure", e);
+        }
+    }
+
+    private MappingMongoConverter converter(DbRefResolver dbRefResolver, CodecRegistryProvider codecRegistryProvider) {
+        return converter(dbRefResolver, codecRegistryProvider, ReservationFields.of(properties.schema().compact()));
+    }
+
+    /**
+     * The converter MongoTemplate would create by default, but with the field names of the given
+     * layout. Our hand-written reading converters are used when codecs are enabled, and during a
+     * migration, since they also read reservations stored in the other layout.
+     */
+    private MappingMongoConverter converter(DbRefResolver dbRefResolver, CodecRegistryProvider codecRegistryProvider, ReservationFields fields) {
+        var readers = properties.codecs() || properties.schema().migrating();
+        var conversions = new MongoCustomConversions(readers ? ReservationConverters.all(fields) : List.of());
+
+        var mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.setFieldNamingStrategy(fields.namingStrategy());
+        mappingContext.afterPropertiesSet();
+
+        var converter = new MappingMongoConverter(dbRefResolver, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.setCodecRegistryProvider(codecRegistryProvider);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+    /**
+     * Settings shared by both clients. Connection pool listeners are only added to the blocking
+     * client, since they may rely on checkouts starting and completing on the same thread.
+     */
+    private MongoClientSettings.Builder settings(ObjectProvider<CommandListener> commandListeners) {
         ConnectionString connection = new ConnectionString(properties.url());
 
         CodecRegistry codecRegistry = CodecRegistries.fromRegistries(
             MongoClientSettings.getDefaultCodecRegistry(),
+            fromProviders(new ReservationCodecProvider(ReservationFields.of(properties.schema().compact()))),
             fromProviders(PojoCodecProvider.builder().automatic(true).build())
         );
 
-        MongoClientSettings settings = MongoClientSettings.builder()
+        MongoClientSettings.Builder settings = MongoClientSettings.builder()
 			.uuidRepresentation(UuidRepresentation.STANDARD)
             .applyConnectionString(connection)
             .codecRegistry(codecRegistry)
-            .build();
-
-        try {
-            return MongoClients.create(settings);
-        } catch (Exception e) {
-            throw new IllegalStateException("Could not start application due to MongoDb startup failure", e);
+            .applyToConnectionPoolSettings(pool -> pool
+                .maxSize(properties.pool().maxSize())
+                .minSize(properties.pool().minSize())
+                .maxConnecting(properties.pool().maxConnecting())
+                .maxWaitTime(properties.pool().maxWaitTime().toMillis(), TimeUnit.MILLISECONDS)
+                .maxConnectionIdleTime(properties.pool().maxIdleTime().toMillis(), TimeUnit.MILLISECONDS))
+            .applyToSocketSettings(socket -> socket
+                .connectTimeout((int) properties.resilience().connectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout((int) properties.resilience().socketTimeout().toMillis(), TimeUnit.MILLISECONDS))
+            .applyToClusterSettings(cluster -> cluster
+                .serverSelectionTimeout(properties.resilience().serverSelectionTimeout().toMillis(), TimeUnit.MILLISECONDS))
+            .applyToServerSettings(server -> server
+                .heartbeatFrequency(properties.network().heartbeatFrequency().toMillis(), TimeUnit.MILLISECONDS)
+                .minHeartbeatFrequency(properties.network().minHeartbeatFrequency().toMillis(), TimeUnit.MILLISECONDS));
+        // Compressors in the connection string are kept, unless configured here
+        if (!properties.network().compressors().isEmpty()) {
+            settings.compressorList(properties.network().compressors().stream().map(MongoDbConfig::compressor).toList());
         }
+        commandListeners.orderedStream().forEach(settings::addCommandListener);
+        return settings;
+    }
+
+    /**
+     * Snappy and zstd need snappy-java and zstd-jni on the classpath, zlib is part of the JDK.
+     */
+    private static MongoCompressor compressor(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "zstd" -> MongoCompressor.createZstdCompressor();
+            case "snappy" -> MongoCompressor.createSnappyCompressor();
+            case "zlib" -> MongoCompressor.createZlibCompressor();
+            default -> throw new IllegalArgumentException("Unknown compressor " + name + ", expected zstd, snappy or zlib");
+        };
     }
 }
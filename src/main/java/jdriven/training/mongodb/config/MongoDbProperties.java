@@ -2,12 +2,282 @@ package jdriven.training.mongodb.config;
 
 import jakarta.validation.constraints.NotNull;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.time.Period;
+import java.util.List;
+import java.util.Map;
 
 @ConfigurationProperties(prefix = "mongodb")
 public record MongoDbProperties(
     @NotNull
 	String url,
 	@NotNull
-	String database
+	String database,
+	@DefaultValue
+	Cache cache,
+	@DefaultValue
+	Pool pool,
+	@DefaultValue
+	Network network,
+	@DefaultValue
+	Execution execution,
+	@DefaultValue
+	WriteBehind writeBehind,
+	@DefaultValue
+	Metrics metrics,
+	@DefaultValue
+	Archive archive,
+	@DefaultValue
+	ChangeStreams changeStreams,
+	@DefaultValue
+	Analytics analytics,
+	@DefaultValue
+	Resilience resilience,
+	@DefaultValue
+	Schema schema,
+	@DefaultValue("false")
+	boolean codecs
 ) {
+
+	/**
+	 * Read-through cache in front of finding reservations by id.
+	 */
+	public record Cache(
+		@DefaultValue("false")
+		boolean enabled,
+		@DefaultValue("10000")
+		long maximumSize,
+		@DefaultValue("5m")
+		Duration ttl
+	) {}
+
+	/**
+	 * Connection pool of the MongoDB clients. The concurrency limits of {@link Execution} should
+	 * add up to at most the maximum pool size, such that callers wait on the limiter instead of
+	 * holding a thread while waiting for a connection. The maxWaitTime is what used to be the wait
+	 * queue timeout. Connections idle for longer than maxIdleTime are closed, zero keeps them open.
+	 */
+	public record Pool(
+		@DefaultValue("100")
+		int maxSize,
+		@DefaultValue("0")
+		int minSize,
+		@DefaultValue("2")
+		int maxConnecting,
+		@DefaultValue("10s")
+		Duration maxWaitTime,
+		@DefaultValue("0s")
+		Duration maxIdleTime
+	) {}
+
+	/**
+	 * Wire compression and monitoring of the MongoDB nodes. Compressors are offered to the server in
+	 * order of preference, out of zstd, snappy and zlib, and none are used when empty. Nodes are
+	 * checked every heartbeatFrequency, and at most every minHeartbeatFrequency while no suitable
+	 * node is known, for example during an election.
+	 */
+	public record Network(
+		@DefaultValue
+		List<String> compressors,
+		@DefaultValue("10s")
+		Duration heartbeatFrequency,
+		@DefaultValue("500ms")
+		Duration minHeartbeatFrequency
+	) {
+
+		public Network {
+			compressors = compressors == null ? List.of() : List.copyOf(compressors);
+		}
+	}
+
+	/**
+	 * Request handling on virtual threads, and the number of concurrent repository operations per
+	 * type of operation that are allowed to reach MongoDB.
+	 */
+	public record Execution(
+		@DefaultValue("false")
+		boolean virtualThreads,
+		@DefaultValue("64")
+		int maxConcurrentReads,
+		@DefaultValue("28")
+		int maxConcurrentWrites,
+		@DefaultValue("8")
+		int maxConcurrentAggregations,
+		@DefaultValue("5s")
+		Duration acquireTimeout
+	) {}
+
+	/**
+	 * Coalescing of small reservation updates which arrive in bursts. When disabled, every update
+	 * is written immediately. Updates are written at the latest after maxDelay, or as soon as
+	 * maxPending updates are waiting.
+	 */
+	public record WriteBehind(
+		@DefaultValue("false")
+		boolean enabled,
+		@DefaultValue("200ms")
+		Duration maxDelay,
+		@DefaultValue("500")
+		int maxPending,
+		@DefaultValue("true")
+		boolean flushOnShutdown
+	) {}
+
+	/**
+	 * Timing of MongoDB commands, connection checkouts and repository methods. Commands taking at
+	 * least slowQueryThreshold are logged with the shape of their filter, never with its values. A
+	 * threshold of zero turns this log off.
+	 */
+	public record Metrics(
+		@DefaultValue("true")
+		boolean enabled,
+		@DefaultValue("500ms")
+		Duration slowQueryThreshold
+	) {}
+
+	/**
+	 * Archival of reservations older than the horizon into a collection per year, every interval.
+	 * Archival moves batchSize reservations at a time, pausing in between batches to leave room for
+	 * regular traffic.
+	 */
+	public record Archive(
+		@DefaultValue("false")
+		boolean enabled,
+		@DefaultValue("2y")
+		Period horizon,
+		@DefaultValue("1000")
+		int batchSize,
+		@DefaultValue("100ms")
+		Duration pause,
+		@DefaultValue("1h")
+		Duration interval
+	) {}
+
+	/**
+	 * Delivery of reservation changes to in-process consumers. Changes are delivered in batches of at
+	 * most batchSize, waiting at most maxWait for a batch to fill up. After a failure, the change
+	 * stream is resumed after retryDelay.
+	 */
+	public record ChangeStreams(
+		@DefaultValue("100")
+		int batchSize,
+		@DefaultValue("500ms")
+		Duration maxWait,
+		@DefaultValue("5s")
+		Duration retryDelay
+	) {}
+
+	/**
+	 * Read preference of {@link AnalyticsMongoTemplate}. Secondaries lagging more than maxStaleness
+	 * behind the primary are not read from, which MongoDB requires to be at least 90 seconds.
+	 */
+	public record Analytics(
+		@DefaultValue("secondaryPreferred")
+		String readPreference,
+		@DefaultValue("90s")
+		Duration maxStaleness
+	) {}
+
+	/**
+	 * Timeouts of the MongoDB clients, and the resilience of ReservationRepository against slow or
+	 * failing nodes, see ReservationResilience. The socket timeout is a last resort, queries are
+	 * bounded by their latency budget first.
+	 */
+	public record Resilience(
+		@DefaultValue("true")
+		boolean enabled,
+		@DefaultValue("10s")
+		Duration connectTimeout,
+		@DefaultValue("60s")
+		Duration socketTimeout,
+		@DefaultValue("10s")
+		Duration serverSelectionTimeout,
+		@DefaultValue
+		Budgets budgets,
+		@DefaultValue
+		Hedging hedging,
+		@DefaultValue
+		CircuitBreaker circuitBreaker
+	) {}
+
+	/**
+	 * Time a repository method may spend in MongoDB, enforced on its queries and aggregations through
+	 * maxTimeMS, and on its writes through wtimeout. Writes are not sent once their budget is spent.
+	 * Budgets are per type of operation, unless configured for the method by name.
+	 */
+	public record Budgets(
+		@DefaultValue("2s")
+		Duration read,
+		@DefaultValue("5s")
+		Duration write,
+		@DefaultValue("30s")
+		Duration aggregation,
+		@DefaultValue
+		Map<String, Duration> methods
+	) {
+
+		public Budgets {
+			methods = methods == null ? Map.of() : Map.copyOf(methods);
+		}
+	}
+
+	/**
+	 * Reads that take longer than the given percentile of their method's recent latencies are sent
+	 * a second time, and the first result is used. Methods are not hedged until minSamples calls have
+	 * been observed, and never within minDelay. At most maxConcurrent second attempts run at a time,
+	 * reads beyond that are not hedged. Every hedge is an extra query, so this is off unless enabled.
+	 */
+	public record Hedging(
+		@DefaultValue("false")
+		boolean enabled,
+		@DefaultValue("0.95")
+		double percentile,
+		@DefaultValue("100")
+		int minSamples,
+		@DefaultValue("5ms")
+		Duration minDelay,
+		@DefaultValue("16")
+		int maxConcurrent
+	) {}
+
+	/**
+	 * Rejects repository calls for openDuration once at least failureRateThreshold of the last
+	 * windowSize calls failed on MongoDB, counting from minimumCalls calls. Afterwards,
+	 * halfOpenCalls calls are let through to decide whether to close the circuit again.
+	 */
+	public record CircuitBreaker(
+		@DefaultValue("0.5")
+		double failureRateThreshold,
+		@DefaultValue("20")
+		int minimumCalls,
+		@DefaultValue("100")
+		int windowSize,
+		@DefaultValue("10s")
+		Duration openDuration,
+		@DefaultValue("5")
+		int halfOpenCalls
+	) {}
+
+	/**
+	 * Layout of the reservation documents. The compact layout stores every field under a name of one
+	 * or two characters, see ReservationFields. Existing reservations are converted by
+	 * ReservationSchemaMigration, batchSize reservations at a time with a pause in between batches.
+	 * The migration runs at startup when migrate is set, which is meant for a one-off run. Set
+	 * migrating on every node from switching layouts until the migration has completed, such that
+	 * reads also find the reservations that are still stored in the previous layout.
+	 */
+	public record Schema(
+		@DefaultValue("false")
+		boolean compact,
+		@DefaultValue("1000")
+		int batchSize,
+		@DefaultValue("100ms")
+		Duration pause,
+		@DefaultValue("false")
+		boolean migrate,
+		@DefaultValue("false")
+		boolean migrating
+	) {}
 }
@@ -0,0 +1,56 @@
+package jdriven.training.mongodb.config;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsConnectionPoolListener;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Publishes latency histograms of MongoDB commands, tagged by command and collection, and the size
+ * of the connection pool, including the number of connections in use (mongodb.driver.pool.checkedout).
+ * Together with {@link MongoCommandMetrics} and {@link MongoPoolCheckoutMetrics}, which cover what
+ * Micrometer's listeners don't. Since we create the MongoDB clients ourselves, Spring Boot's
+ * MongoDB metrics auto-configuration does not apply.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "mongodb.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class MongoMetricsConfig {
+
+	@Bean
+	MongoMetricsCommandListener mongoMetricsCommandListener(MeterRegistry registry) {
+		return new MongoMetricsCommandListener(registry);
+	}
+
+	@Bean
+	MongoMetricsConnectionPoolListener mongoMetricsConnectionPoolListener(MeterRegistry registry) {
+		return new MongoMetricsConnectionPoolListener(registry);
+	}
+
+	@Bean
+	MongoCommandMetrics mongoCommandMetrics(MeterRegistry registry, MongoDbProperties properties) {
+		return new MongoCommandMetrics(registry, properties.metrics().slowQueryThreshold());
+	}
+
+	@Bean
+	MongoPoolCheckoutMetrics mongoPoolCheckoutMetrics(MeterRegistry registry) {
+		return new MongoPoolCheckoutMetrics(registry);
+	}
+
+	@Bean
+	MeterFilter mongoCommandHistograms() {
+		return new MeterFilter() {
+			@Override
+			public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+				if (!id.getName().equals("mongodb.driver.commands")) {
+					return config;
+				}
+				return DistributionStatisticConfig.builder().percentilesHistogram(true).build().merge(config);
+			}
+		};
+	}
+}
@@ -0,0 +1,58 @@
+package jdriven.training.mongodb.config;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent waiting for a connection from the pool, mongodb.driver.pool.checkout, tagged with
+ * whether a connection was obtained. The blocking driver checks out connections on the calling
+ * thread, which is what we rely on to match the start of a checkout with its end.
+ */
+public class MongoPoolCheckoutMetrics implements ConnectionPoolListener {
+
+	private final ThreadLocal<Long> started = new ThreadLocal<>();
+	private final Timer succeeded;
+	private final Timer failed;
+
+	public MongoPoolCheckoutMetrics(MeterRegistry registry) {
+		this.succeeded = timer(registry, "succeeded");
+		this.failed = timer(registry, "failed");
+	}
+
+	@Override
+	public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+		started.set(System.nanoTime());
+	}
+
+	@Override
+	public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+		record(succeeded);
+	}
+
+	@Override
+	public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+		record(failed);
+	}
+
+	private void record(Timer timer) {
+		var start = started.get();
+		if (start != null) {
+			started.remove();
+			timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private static Timer timer(MeterRegistry registry, String outcome) {
+		return Timer.builder("mongodb.driver.pool.checkout")
+				.description("Time waiting for a connection from the pool")
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(registry);
+	}
+}
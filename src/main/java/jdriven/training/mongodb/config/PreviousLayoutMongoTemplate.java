@@ -0,0 +1,52 @@
+package jdriven.training.mongodb.config;
+
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * MongoTemplate which maps reservations to the layout we are migrating away from, the opposite of
+ * mongodb.schema.compact. While mongodb.schema.migrating is set, reads of reservations are run
+ * through this template as well, such that reservations which have not been migrated yet are still
+ * found, and updates of a single reservation are applied in the layout it is stored in.
+ */
+public class PreviousLayoutMongoTemplate extends MongoTemplate {
+
+	private final boolean migrating;
+
+	public PreviousLayoutMongoTemplate(MongoDatabaseFactory factory, MongoConverter converter, boolean migrating) {
+		super(factory, converter);
+		this.migrating = migrating;
+	}
+
+	/**
+	 * Whether reservations may still be stored in the previous layout.
+	 */
+	public boolean migrating() {
+		return migrating;
+	}
+
+	/**
+	 * Applies the update to the reservation with the given id when it is still stored in the previous
+	 * layout, and returns whether it was. The migration only ever converts reservations to the
+	 * configured layout, so when it was not, the caller can apply the update in that layout instead.
+	 * The update is built for the given layout, which matters for names which are not properties.
+	 */
+	public boolean updateUnmigrated(UUID id, Function<ReservationFields, Update> update) {
+		if (!migrating) {
+			return false;
+		}
+		var fields = ReservationFields.of(getConverter());
+		var stored = fields.names().values().stream().map(name -> Criteria.where(name).exists(true)).toList();
+		var query = Query.query(Criteria.where("_id").is(id).orOperator(stored));
+		return updateFirst(query, update.apply(fields), ReservationEntity.class).getMatchedCount() > 0;
+	}
+}
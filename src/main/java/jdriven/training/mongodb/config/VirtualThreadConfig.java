@@ -0,0 +1,28 @@
+package jdriven.training.mongodb.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+/**
+ * Handles web requests and asynchronous tasks on virtual threads, such that a latency spike in
+ * MongoDB no longer exhausts a fixed pool of platform threads. The number of operations reaching
+ * MongoDB is bounded by the ReservationConcurrencyLimiter instead.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "mongodb.execution", name = "virtual-threads", havingValue = "true")
+public class VirtualThreadConfig {
+
+	@Bean(name = "applicationTaskExecutor")
+	AsyncTaskExecutor applicationTaskExecutor() {
+		return new TaskExecutorAdapter(VirtualThreads.newExecutor());
+	}
+
+	@Bean
+	TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler(AsyncTaskExecutor applicationTaskExecutor) {
+		return protocolHandler -> protocolHandler.setExecutor(applicationTaskExecutor);
+	}
+}
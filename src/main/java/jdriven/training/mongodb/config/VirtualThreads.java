@@ -0,0 +1,34 @@
+package jdriven.training.mongodb.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * We compile against Java 17, where virtual threads do not exist yet. When running on Java 21 or
+ * later, the virtual thread executor is looked up at runtime instead.
+ */
+public final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	public static boolean available() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates an executor which starts a new virtual thread for each task.
+	 */
+	public static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads require Java 21 or later, running on " + Runtime.version(), e);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package jdriven.training.mongodb.persistence;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pipeline of which everything but the parameters is built once, see {@link PreparedDocument}.
+ * Stages without parameters are shared between calls. Results are decoded by the codecs registered
+ * with the MongoDB client, without the mapping of MongoTemplate.
+ */
+final class PreparedAggregation<T> {
+
+	private final Class<T> type;
+	private final List<PreparedDocument> stages;
+
+	PreparedAggregation(Class<T> type, Document... stages) {
+		this.type = type;
+		this.stages = List.of(stages).stream().map(PreparedDocument::new).toList();
+	}
+
+	List<T> aggregate(MongoTemplate mongo, String collection, Object... parameters) {
+		var pipeline = new ArrayList<Document>(stages.size());
+		for (var stage : stages) {
+			pipeline.add(stage.bind(mongo.getConverter(), parameters));
+		}
+		return mongo.execute(collection, documents -> documents.withDocumentClass(type)
+				.aggregate(pipeline)
+				.maxTime(ReservationBudget.remainingMillis(), TimeUnit.MILLISECONDS)
+				.into(new ArrayList<>()));
+	}
+}
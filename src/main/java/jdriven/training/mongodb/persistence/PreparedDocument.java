@@ -0,0 +1,64 @@
+package jdriven.training.mongodb.persistence;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A filter, sort or pipeline stage which is built once, with parameters in place of the values that
+ * differ per call. Binding only copies the (sub)documents containing a parameter, all others are
+ * shared between calls. Parameters are converted the way MongoTemplate would, for example a LocalDate
+ * becomes the start of that day. Parameters inside arrays are not supported.
+ */
+final class PreparedDocument {
+
+	/**
+	 * Slot for the parameter at the given position.
+	 */
+	record Parameter(int index) {}
+
+	private final Document template;
+	private final Map<String, PreparedDocument> nested = new HashMap<>();
+	private final boolean constant;
+
+	PreparedDocument(Document template) {
+		this.template = template;
+		var parameters = false;
+		for (var entry : template.entrySet()) {
+			if (entry.getValue() instanceof Parameter) {
+				parameters = true;
+			} else if (entry.getValue() instanceof Document document) {
+				var prepared = new PreparedDocument(document);
+				if (!prepared.constant) {
+					nested.put(entry.getKey(), prepared);
+					parameters = true;
+				}
+			}
+		}
+		this.constant = !parameters;
+	}
+
+	static Parameter parameter(int index) {
+		return new Parameter(index);
+	}
+
+	Document bind(MongoConverter converter, Object[] values) {
+		if (constant) {
+			return template;
+		}
+
+		var bound = new Document();
+		for (var entry : template.entrySet()) {
+			var value = entry.getValue();
+			if (value instanceof Parameter parameter) {
+				value = converter.convertToMongoType(values[parameter.index()]);
+			} else if (nested.containsKey(entry.getKey())) {
+				value = nested.get(entry.getKey()).bind(converter, values);
+			}
+			bound.put(entry.getKey(), value);
+		}
+		return bound;
+	}
+}
@@ -0,0 +1,54 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.lang.Nullable;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A find command of which everything but the parameters is built once, see {@link PreparedDocument}.
+ * Results are decoded by the codecs registered with the MongoDB client, without the mapping of
+ * MongoTemplate. Instances are immutable and can be shared between threads.
+ */
+final class PreparedQuery<T> {
+
+	private final Class<T> type;
+	private final PreparedDocument filter;
+	@Nullable
+	private final Document sort;
+	private final int limit;
+
+	private PreparedQuery(Class<T> type, PreparedDocument filter, @Nullable Document sort, int limit) {
+		this.type = type;
+		this.filter = filter;
+		this.sort = sort;
+		this.limit = limit;
+	}
+
+	static <T> PreparedQuery<T> of(Class<T> type, Document filter) {
+		return new PreparedQuery<>(type, new PreparedDocument(filter), null, 0);
+	}
+
+	PreparedQuery<T> sort(Document sort) {
+		return new PreparedQuery<>(type, filter, sort, limit);
+	}
+
+	PreparedQuery<T> limit(int limit) {
+		return new PreparedQuery<>(type, filter, sort, limit);
+	}
+
+	List<T> find(MongoTemplate mongo, String collection, Object... parameters) {
+		var bound = filter.bind(mongo.getConverter(), parameters);
+		return mongo.execute(collection, documents -> {
+			var find = documents.withDocumentClass(type).find(bound).limit(limit)
+					.maxTime(ReservationBudget.remainingMillis(), TimeUnit.MILLISECONDS);
+			if (sort != null) {
+				find.sort(sort);
+			}
+			return find.into(new ArrayList<>(limit > 0 ? limit : 16));
+		});
+	}
+}
@@ -0,0 +1,166 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.config.MongoDbIdProvider;
+import jdriven.training.mongodb.config.PreviousLayoutMongoTemplate;
+import jdriven.training.mongodb.persistence.views.ReservationCheckin;
+import jdriven.training.mongodb.persistence.views.ReservationCheckinView;
+import jdriven.training.mongodb.persistence.views.ReservationIncomeSummary;
+import jdriven.training.mongodb.persistence.views.ReservationInsuranceClaim;
+import lombok.AllArgsConstructor;
+import org.apache.commons.lang3.NotImplementedException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Non-blocking counterpart of {@link ReservationRepository}, which does not tie up a thread while
+ * waiting for MongoDB. The operations and their expectations are the same, see the blocking
+ * repository for the full description of each exercise. Since listeners and the cache are blocking,
+ * they are notified on the bounded elastic scheduler. The archive, the check-in view and the
+ * previous layout of a running schema migration are blocking as well, and are only consulted on the
+ * bounded elastic scheduler. Days the archive covers, and queries during a schema migration, are
+ * answered by {@link ReservationRepository} on that scheduler, which merges all of them.
+ */
+@Service
+@AllArgsConstructor
+public class ReactiveReservationRepository {
+
+    private final ReactiveMongoTemplate mongo;
+    private final MongoDbIdProvider id;
+    private final ReservationCache cache;
+    private final List<ReservationListener> listeners;
+    private final ReservationArchive archive;
+    private final ReservationCheckinView checkinView;
+    private final PreviousLayoutMongoTemplate previous;
+    private final ReservationRepository repository;
+
+    /**
+     * Finds the reservation in the cache, the reservation collection or the archive, in that order,
+     * and caches what was found.
+     */
+    public Mono<ReservationEntity> find(UUID id) {
+        return Mono.defer(() -> cache.getIfPresent(id)
+                .map(Mono::just)
+                .orElseGet(() -> mongo.findById(id, ReservationEntity.class)
+                        .publishOn(Schedulers.boundedElastic())
+                        .switchIfEmpty(Mono.fromCallable(() -> archive.find(id).orElse(null))
+                                .subscribeOn(Schedulers.boundedElastic()))
+                        .doOnNext(cache::put)));
+    }
+
+    /**
+     * Streams all reservations, requesting batches from the cursor only as fast as the subscriber
+     * consumes them.
+     */
+    public Flux<ReservationEntity> findAll() {
+        return mongo.find(new Query().cursorBatchSize(ReservationRepository.DEFAULT_BATCH_SIZE), ReservationEntity.class);
+    }
+
+    public Mono<ReservationEntity> save(ReservationEntry entry) {
+        return Mono.defer(() -> mongo.save(ReservationRepository.createEntity(id.provide(), entry)))
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(saved -> {
+                    cache.put(saved);
+                    listeners.forEach(listener -> listener.saved(List.of(saved)));
+                });
+    }
+
+    public Mono<Void> delete(UUID id) {
+        return mongo.findAndRemove(Query.query(Criteria.where("_id").is(id)), ReservationEntity.class)
+                .publishOn(Schedulers.boundedElastic())
+                .switchIfEmpty(Mono.fromCallable(() -> archive.remove(id))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .doOnNext(removed -> {
+                    cache.evict(id);
+                    listeners.forEach(listener -> listener.deleted(removed));
+                })
+                .then();
+    }
+
+    public Flux<ReservationEntity> queryExample_mostExpensive(LocalDate date) {
+        if (blocking(date)) {
+            return Mono.fromCallable(() -> repository.queryExample_mostExpensive(date))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapIterable(reservations -> reservations);
+        }
+        return Flux.defer(() -> mongo.find(ReservationRepository.mostExpensive(date), ReservationEntity.class));
+    }
+
+    public Flux<ReservationEntity> queryExercise_damageClaims(String chalet) {
+        throw new NotImplementedException();
+    }
+
+    public Flux<ReservationEntity> queryExercise_pageAndSort(int pageSize, int page, boolean ascending, String booker) {
+        throw new NotImplementedException();
+    }
+
+    public Mono<Void> updateExample_bookerCorrection(UUID id, String name) {
+        var query = new Query();
+        query.addCriteria(Criteria.where("_id").is(id));
+
+        var corrected = Mono.defer(() -> mongo.updateFirst(query, ReservationRepository.bookerCorrection(ReservationFields.of(mongo.getConverter()), name), ReservationEntity.class))
+                .then();
+        var update = !previous.migrating() ? corrected : Mono.fromCallable(() -> previous.updateUnmigrated(id, fields -> ReservationRepository.bookerCorrection(fields, name)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(unmigrated -> unmigrated ? Mono.<Void>empty() : corrected);
+        return update.then(Mono.<Void>fromRunnable(() -> {
+                    cache.evict(id);
+                    listeners.forEach(listener -> listener.bookerCorrected(id, name));
+                })
+                .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    public Mono<Void> updateExercise_includeNewGuests(UUID id, String guest) {
+        throw new NotImplementedException();
+    }
+
+    public Mono<Void> updateExercise_anniversaryDiscount(LocalDate date) {
+        throw new NotImplementedException();
+    }
+
+    /**
+     * Reads the list from the {@link ReservationCheckinView}, and aggregates the reservations of dates
+     * it has no complete list for.
+     */
+    public Mono<ReservationCheckin> pipelineExample_checkinList(LocalDate date) {
+        if (blocking(date)) {
+            return Mono.fromCallable(() -> repository.pipelineExample_checkinList(date))
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+
+        var pipeline = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("date").is(date)),
+                Aggregation.group("date").addToSet("booker").as("bookers"),
+                Aggregation.addFields().addField("date").withValue(date).build()
+        );
+        return Mono.fromCallable(() -> checkinView.find(date).orElse(null))
+                .subscribeOn(Schedulers.boundedElastic())
+                .switchIfEmpty(Mono.defer(() -> mongo.aggregate(pipeline, ReservationEntity.class, ReservationCheckin.class).singleOrEmpty()));
+    }
+
+    public Mono<ReservationIncomeSummary> pipelineExercise_incomeGenerated(Year year, Month month) {
+        throw new NotImplementedException();
+    }
+
+    public Flux<ReservationInsuranceClaim> pipelineExercise_insuranceClaims(List<String> chalets, LocalDate date) {
+        throw new NotImplementedException();
+    }
+
+    /**
+     * Whether queries of the date have to include the archive or the previous layout.
+     */
+    private boolean blocking(LocalDate date) {
+        return archive.covers(date) || previous.migrating();
+    }
+}
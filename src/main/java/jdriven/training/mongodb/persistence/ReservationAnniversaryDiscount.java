@@ -0,0 +1,196 @@
+package jdriven.training.mongodb.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdriven.training.mongodb.config.PreviousLayoutMongoTemplate;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the anniversary discount of {@link ReservationRepository#updateExercise_anniversaryDiscount}
+ * in batches, instead of one update over all reservations of the day. Each batch discounts a range
+ * of ids, so no single update holds on to the whole day, and replication receives the changes in
+ * small portions.
+ * <p>
+ * Every discounted reservation is marked as such within the same update, and marked reservations are
+ * never discounted again. A run that crashed can therefore simply be started again, while the
+ * checkpoint document lets it skip the ranges that were already done. It refuses to run during a
+ * schema migration, since it would miss the reservations not converted yet.
+ */
+@Component
+public class ReservationAnniversaryDiscount {
+
+	public static final String CHECKPOINT_COLLECTION = "reservation-discount-checkpoint";
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	static final String DISCOUNTS = "discounts";
+	private static final long DISCOUNT = -50;
+
+	private final MongoTemplate mongo;
+	private final PreviousLayoutMongoTemplate previous;
+	private final ReservationCache cache;
+	private final List<ReservationListener> listeners;
+
+	private final Counter discounted;
+	private final Counter batches;
+	private final Timer batchTime;
+	private final AtomicLong remaining = new AtomicLong();
+
+	public ReservationAnniversaryDiscount(MongoTemplate mongo, PreviousLayoutMongoTemplate previous, ReservationCache cache,
+										  List<ReservationListener> listeners, MeterRegistry registry) {
+		this.mongo = mongo;
+		this.previous = previous;
+		this.cache = cache;
+		this.listeners = listeners;
+		this.discounted = Counter.builder("reservation.discount.reservations")
+				.description("Reservations given the anniversary discount")
+				.register(registry);
+		this.batches = Counter.builder("reservation.discount.batches")
+				.description("Batches of the anniversary discount applied")
+				.register(registry);
+		this.batchTime = Timer.builder("reservation.discount.batch")
+				.description("Time to apply the anniversary discount to one batch")
+				.register(registry);
+		Gauge.builder("reservation.discount.remaining", remaining, AtomicLong::get)
+				.description("Reservations still to be discounted by the running anniversary discount")
+				.register(registry);
+	}
+
+	/**
+	 * Progress of the discount for one date, as stored in the checkpoint document.
+	 */
+	public record Progress(
+			LocalDate date,
+			long discounted,
+			long batches,
+			boolean completed
+	) {}
+
+	public Progress apply(LocalDate date) {
+		return apply(date, DEFAULT_BATCH_SIZE);
+	}
+
+	public Progress apply(LocalDate date, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive, but was " + batchSize);
+		}
+		if (previous.migrating()) {
+			throw new IllegalStateException("Refusing to discount reservations while the schema migration runs");
+		}
+
+		var marker = marker(date);
+		var checkpoint = mongo.findById(marker, Document.class, CHECKPOINT_COLLECTION);
+		if (checkpoint != null && checkpoint.getBoolean("completed", false)) {
+			return progress(date, checkpoint);
+		}
+
+		var lastId = checkpoint == null ? null : checkpoint.get("lastId", UUID.class);
+		var total = checkpoint == null ? 0L : checkpoint.getLong("discounted");
+		var count = checkpoint == null ? 0L : checkpoint.getLong("batches");
+		remaining.set(mongo.count(Query.query(eligible(date, marker)), ReservationEntity.class));
+
+		while (true) {
+			var candidates = Query.query(eligible(date, marker));
+			if (lastId != null) {
+				candidates.addCriteria(Criteria.where("_id").gt(lastId));
+			}
+			candidates.with(Sort.by("_id")).limit(batchSize);
+			var batch = mongo.find(candidates, ReservationEntity.class);
+			if (batch.isEmpty()) {
+				break;
+			}
+
+			var first = batch.get(0).id();
+			var last = batch.get(batch.size() - 1).id();
+			var discountedInBatch = batchTime.record(() -> discount(date, marker, first, last, batch));
+
+			lastId = last;
+			total += discountedInBatch;
+			count++;
+			discounted.increment(discountedInBatch);
+			batches.increment();
+			remaining.addAndGet(-discountedInBatch);
+			save(marker, lastId, total, count, false);
+		}
+
+		remaining.set(0);
+		save(marker, lastId, total, count, true);
+		return new Progress(date, total, count, true);
+	}
+
+	public Progress progress(LocalDate date) {
+		var checkpoint = mongo.findById(marker(date), Document.class, CHECKPOINT_COLLECTION);
+		return checkpoint == null ? new Progress(date, 0, 0, false) : progress(date, checkpoint);
+	}
+
+	private long discount(LocalDate date, String marker, UUID first, UUID last, List<ReservationEntity> batch) {
+		var range = Query.query(new Criteria().andOperator(
+				eligible(date, marker),
+				Criteria.where("_id").gte(first).lte(last)
+		));
+		var result = mongo.updateMulti(range, new Update().inc("price", DISCOUNT).addToSet(DISCOUNTS, marker), ReservationEntity.class);
+
+		// Reservations can change between reading and discounting the batch, so when not all of them
+		// were discounted, we find out which ones were.
+		var changed = batch;
+		if (result.getModifiedCount() != batch.size()) {
+			var ids = batch.stream().map(ReservationEntity::id).toList();
+			changed = mongo.find(Query.query(Criteria.where("_id").in(ids).and(DISCOUNTS).is(marker)), ReservationEntity.class);
+		}
+		changed.forEach(reservation -> cache.evict(reservation.id()));
+		if (!changed.isEmpty()) {
+			var reservations = changed;
+			listeners.forEach(listener -> listener.priceChanged(reservations, DISCOUNT));
+		}
+		return result.getModifiedCount();
+	}
+
+	private void save(String marker, UUID lastId, long total, long count, boolean completed) {
+		var checkpoint = new Document("_id", marker)
+				.append("lastId", lastId)
+				.append("discounted", total)
+				.append("batches", count)
+				.append("completed", completed)
+				.append("updatedAt", Instant.now());
+		mongo.findAndReplace(Query.query(Criteria.where("_id").is(marker)), checkpoint,
+				FindAndReplaceOptions.options().upsert(), Document.class, CHECKPOINT_COLLECTION);
+	}
+
+	/**
+	 * The rules of the discount, which only apply to reservations that weren't discounted before:
+	 * - The reservation costs >= $300 with insurance
+	 * - The reservation costs >= $250 without insurance
+	 * - The reservation must not have been paid for yet
+	 */
+	private static Criteria eligible(LocalDate date, String marker) {
+		return Criteria.where("date").is(date)
+				.and("hasPaid").is(false)
+				.and(DISCOUNTS).ne(marker)
+				.orOperator(
+						Criteria.where("hasInsurance").is(true).and("price").gte(300),
+						Criteria.where("hasInsurance").is(false).and("price").gte(250)
+				);
+	}
+
+	private static String marker(LocalDate date) {
+		return "anniversary:" + date;
+	}
+
+	private static Progress progress(LocalDate date, Document checkpoint) {
+		return new Progress(date, checkpoint.getLong("discounted"), checkpoint.getLong("batches"), checkpoint.getBoolean("completed", false));
+	}
+}
@@ -0,0 +1,274 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.lang.Nullable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jdriven.training.mongodb.config.MongoDbProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Nearly all of our traffic concerns the current and the next season, while the reservation collection
+ * keeps growing with every season that passed. When enabled, reservations older than the configured
+ * horizon are moved into a collection per year, such that the working set of the reservation
+ * collection stays the same size.
+ * <p>
+ * {@link ReservationRepository} consults the archive when a reservation is not found by id, and for
+ * date-based queries on dates before the horizon. Those queries combine the archive with the
+ * reservation collection, so they are correct while archival is still catching up. The income views
+ * include the archive. The check-in view drops reservations as they are moved, the repository
+ * aggregates those dates from the archive instead.
+ * <p>
+ * Archival runs every configured interval. Every node does so, which is harmless since a batch that
+ * was already moved by another node is simply merged again.
+ */
+@Slf4j
+@Component
+public class ReservationArchive {
+
+	public static final String COLLECTION_PREFIX = "reservation-archive-";
+
+	/**
+	 * How long the list of archive collections is reused, after which collections created by other
+	 * nodes are noticed.
+	 */
+	private static final Duration COLLECTIONS_TTL = Duration.ofMinutes(1);
+
+	private final MongoTemplate mongo;
+	private final MongoDbProperties.Archive settings;
+	private final Set<String> indexed = ConcurrentHashMap.newKeySet();
+	private final Counter archived;
+	@Nullable
+	private final ScheduledExecutorService scheduler;
+
+	private volatile List<String> collections = List.of();
+	private volatile long collectionsListedAt = Long.MIN_VALUE;
+
+	@Autowired
+	public ReservationArchive(MongoTemplate mongo, MongoDbProperties properties, MeterRegistry registry) {
+		this.mongo = mongo;
+		this.settings = properties.archive();
+		this.archived = Counter.builder("reservation.archive.reservations")
+				.description("Reservations moved into the archive")
+				.register(registry);
+		if (settings.enabled()) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				var thread = new Thread(runnable, "reservation-archive");
+				thread.setDaemon(true);
+				return thread;
+			});
+			var interval = settings.interval().toMillis();
+			scheduler.scheduleWithFixedDelay(this::scheduled, interval, interval, TimeUnit.MILLISECONDS);
+		} else {
+			this.scheduler = null;
+		}
+	}
+
+	private ReservationArchive() {
+		this.mongo = null;
+		this.settings = null;
+		this.archived = null;
+		this.scheduler = null;
+	}
+
+	@PreDestroy
+	public void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * An archive which never contains any reservations.
+	 */
+	public static ReservationArchive disabled() {
+		return new ReservationArchive();
+	}
+
+	public static String collection(int year) {
+		return COLLECTION_PREFIX + year;
+	}
+
+	/**
+	 * Reservations before this date are moved into the archive.
+	 */
+	public LocalDate horizon() {
+		if (settings == null || !settings.enabled()) {
+			return LocalDate.MIN;
+		}
+		return LocalDate.now().minus(settings.horizon());
+	}
+
+	/**
+	 * Whether reservations on the given date may have been moved into the archive.
+	 */
+	public boolean covers(LocalDate date) {
+		return date.isBefore(horizon());
+	}
+
+	public Optional<ReservationEntity> find(UUID id) {
+		for (var collection : collections()) {
+			var found = mongo.findById(id, ReservationEntity.class, collection);
+			if (found != null) {
+				return Optional.of(found);
+			}
+		}
+		return Optional.empty();
+	}
+
+	public <T> List<T> find(Query query, Class<T> type, LocalDate date) {
+		return mongo.query(ReservationEntity.class)
+				.inCollection(collection(date.getYear()))
+				.as(type)
+				.matching(query)
+				.all();
+	}
+
+	@Nullable
+	public ReservationEntity remove(UUID id) {
+		for (var collection : collections()) {
+			var removed = mongo.findAndRemove(Query.query(Criteria.where("_id").is(id)), ReservationEntity.class, collection);
+			if (removed != null) {
+				return removed;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Moves all reservations before the horizon into the archive, oldest first, and returns the
+	 * number of reservations moved. Each batch is first merged into the archive and only then
+	 * removed, so a batch interrupted halfway is simply merged again by the next run. Reservations
+	 * updated in between are not removed, their next batch moves the updated version.
+	 */
+	public long archive() throws InterruptedException {
+		if (settings == null || !settings.enabled()) {
+			throw new IllegalStateException("Archival is disabled, see mongodb.archive.enabled");
+		}
+
+		var horizon = horizon();
+		var moved = 0L;
+		while (true) {
+			var query = Query.query(Criteria.where("date").lt(horizon))
+					.with(Sort.by("date", "_id"))
+					.limit(settings.batchSize());
+			query.fields().include("_id", "date");
+			var batch = mongo.find(query, ReservationEntity.class);
+			if (batch.isEmpty()) {
+				return moved;
+			}
+
+			var years = batch.stream().collect(Collectors.groupingBy(
+					reservation -> reservation.date().getYear(),
+					TreeMap::new,
+					Collectors.mapping(ReservationEntity::id, Collectors.toList())
+			));
+			var removed = 0L;
+			for (var year : years.entrySet()) {
+				removed += move(year.getKey(), year.getValue());
+			}
+
+			moved += removed;
+			archived.increment(removed);
+			Thread.sleep(settings.pause().toMillis());
+		}
+	}
+
+	private void scheduled() {
+		try {
+			var moved = archive();
+			if (moved > 0) {
+				log.info("Moved {} reservations into the archive", moved);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			log.error("Failed to archive reservations, retrying in {}", settings.interval(), e);
+		}
+	}
+
+	/**
+	 * Merges the reservations into the archive of the year, and removes those that were not updated
+	 * since from the reservation collection, returning how many were removed. The copies of the others
+	 * are removed from the archive again, so their current version stays the only one.
+	 */
+	private long move(int year, List<UUID> ids) {
+		var collection = collection(year);
+		if (indexed.add(collection)) {
+			collectionsListedAt = Long.MIN_VALUE;
+			ReservationIndexes.ensure(mongo.indexOps(collection, ReservationEntity.class),
+					ReservationIndexes.ARCHIVE_DEFINITIONS, ReservationFields.of(mongo.getConverter()));
+		}
+
+		var pipeline = Aggregation.newAggregation(
+				Aggregation.match(Criteria.where("_id").in(ids)),
+				Aggregation.merge()
+						.intoCollection(collection)
+						.whenMatched(MergeOperation.WhenDocumentsMatch.replaceDocument())
+						.whenDocumentsDontMatch(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+						.build()
+		);
+		mongo.aggregate(pipeline, ReservationEntity.class, Document.class);
+
+		var reservations = mongo.getCollectionName(ReservationEntity.class);
+		var copies = mongo.find(Query.query(Criteria.where("_id").in(ids)), Document.class, collection);
+		if (copies.isEmpty()) {
+			return 0;
+		}
+		var operations = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, reservations);
+		copies.forEach(copy -> operations.remove(new BasicQuery(new Document("_id", copy.get("_id"))
+				.append("$expr", new Document("$eq", List.of("$$ROOT", new Document("$literal", copy)))))));
+		var removed = operations.execute().getDeletedCount();
+
+		if (removed < copies.size()) {
+			var updated = mongo.findDistinct(Query.query(Criteria.where("_id").in(ids)), "_id", reservations, Object.class);
+			mongo.remove(Query.query(Criteria.where("_id").in(updated)), collection);
+		}
+		return removed;
+	}
+
+	/**
+	 * Archive collections, most recent year first. The list is reused for a minute, such that looking
+	 * up an unknown id does not list the collections every time. Other nodes may create new ones in
+	 * the meantime, but only for years that are about to pass the horizon.
+	 */
+	public List<String> collections() {
+		if (settings == null || !settings.enabled()) {
+			return List.of();
+		}
+		var now = System.nanoTime();
+		if (collectionsListedAt == Long.MIN_VALUE || now - collectionsListedAt > COLLECTIONS_TTL.toNanos()) {
+			collections = mongo.getCollectionNames().stream()
+					.filter(name -> name.startsWith(COLLECTION_PREFIX))
+					.sorted(Comparator.reverseOrder())
+					.toList();
+			collectionsListedAt = now;
+		}
+		return collections;
+	}
+}
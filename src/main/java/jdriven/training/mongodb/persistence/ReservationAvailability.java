@@ -0,0 +1,417 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.lang.Nullable;
+import jdriven.training.mongodb.config.PreviousLayoutMongoTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of which chalets are booked on which dates, as a bitset of days per chalet, such that
+ * our booking screens can check availability on every keystroke without querying MongoDB.
+ * <p>
+ * The bitsets are filled at startup by scanning all reservations, and kept up to date by local
+ * writes and by the change stream, for writes by other nodes. The change stream is resumed from the
+ * moment just before the scan, so no write is missed. A chalet-day is freed only after checking that
+ * MongoDB has no other reservation for it, and no booking of it is still being saved. That check is
+ * repeated under the write lock, so a booking made in the meantime is never freed. Updates moving a
+ * reservation to another chalet or date book the new chalet-day and free the old one. To know the
+ * chalet and date a reservation had before it was deleted or moved by other nodes, pre-images are
+ * enabled on the reservation collection. Where that is not possible, those chalet-days stay booked
+ * until the next restart, which errs on the side of caution. Reservations are read in both layouts
+ * of {@link ReservationFields}, such that those not converted yet by a schema migration count too.
+ * <p>
+ * Bookings through {@link ReservationRepository#book} are checked against and reserved in the bitsets
+ * atomically, which refuses double bookings through this node without a round trip. The bitsets may be
+ * a moment behind the writes of other nodes though, so MongoDB has the final say: each booking claims
+ * its chalet-day in the reservation-chalet-days collection, where the chalet-day is the _id, so of two
+ * nodes booking the same chalet-day at the same moment only one succeeds. Claims are removed when their
+ * reservation is deleted or moved, by any node.
+ */
+@Slf4j
+@Component
+public class ReservationAvailability implements ReservationListener {
+
+	public static final String CLAIMS = "reservation-chalet-days";
+
+	/**
+	 * How long a claim may wait for its reservation to be saved, before another booking may take it over.
+	 */
+	private static final Duration CLAIM_TIMEOUT = Duration.ofMinutes(1);
+
+	private final MongoTemplate mongo;
+	private final PreviousLayoutMongoTemplate previous;
+	private final ReservationFields fields;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, BitSet> booked = new HashMap<>();
+	/**
+	 * Chalet-days reserved by {@link #reserve} whose reservation has not been saved yet.
+	 */
+	private final Map<String, BitSet> saving = new HashMap<>();
+
+	@Autowired
+	public ReservationAvailability(MongoTemplate mongo, PreviousLayoutMongoTemplate previous, MessageListenerContainer container) {
+		this.mongo = mongo;
+		this.previous = previous;
+		this.fields = ReservationFields.of(mongo.getConverter());
+		var collection = mongo.getCollectionName(ReservationEntity.class);
+		var preImages = enablePreImages(collection);
+		var start = operationTime();
+		warm(collection);
+
+		var request = ChangeStreamRequest.builder(this::onChange)
+				.collection(collection)
+				.filter(new Document("$match", new Document("$or", List.of(
+						new Document("operationType", new Document("$in", List.of("insert", "replace", "delete"))),
+						new Document("operationType", "update").append("$or", Stream.of(fields, fields.other())
+								.flatMap(layout -> Stream.of(layout.chalet(), layout.date()))
+								.map(name -> new Document("updateDescription.updatedFields." + name, new Document("$exists", true)))
+								.toList())
+				))))
+				.fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+		if (preImages) {
+			request.fullDocumentBeforeChangeLookup(FullDocumentBeforeChange.WHEN_AVAILABLE);
+		}
+		if (start != null) {
+			// Resumes at the start of that second, replaying a few changes twice does no harm
+			request.resumeAt(Instant.ofEpochSecond(start.getTime()));
+		}
+		container.register(request.build(), Document.class);
+	}
+
+	private ReservationAvailability() {
+		this.mongo = null;
+		this.previous = null;
+		this.fields = ReservationFields.VERBOSE;
+	}
+
+	/**
+	 * Availability which considers every chalet available, and never checks for conflicts.
+	 */
+	public static ReservationAvailability disabled() {
+		return new ReservationAvailability();
+	}
+
+	public boolean isAvailable(String chalet, LocalDate date) {
+		return isAvailable(chalet, date, date);
+	}
+
+	/**
+	 * Whether the chalet is available on each day from and to, both inclusive.
+	 */
+	public boolean isAvailable(String chalet, LocalDate from, LocalDate to) {
+		lock.readLock().lock();
+		try {
+			var days = booked.get(chalet);
+			if (days == null) {
+				return true;
+			}
+			var first = days.nextSetBit(day(from));
+			return first < 0 || first > day(to);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The given chalets which are available on each day from and to, both inclusive, in the given order.
+	 */
+	public List<String> freeChalets(Collection<String> chalets, LocalDate from, LocalDate to) {
+		lock.readLock().lock();
+		try {
+			return chalets.stream().filter(chalet -> isAvailable(chalet, from, to)).toList();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Books the chalet-day for a reservation about to be saved when it is available, returning
+	 * whether it was. Call {@link #cancel} when the reservation could not be saved.
+	 */
+	boolean reserve(String chalet, LocalDate date) {
+		if (mongo == null) {
+			return true;
+		}
+		lock.writeLock().lock();
+		try {
+			if (!book(chalet, date)) {
+				return false;
+			}
+			saving.computeIfAbsent(chalet, key -> new BitSet()).set(day(date));
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Claims the chalet-day of the reservation about to be saved in MongoDB, returning false when
+	 * another reservation holds it. Claiming again for the same reservation succeeds. A claim of a
+	 * reservation that was never saved, for example because its node stopped, is taken over once it
+	 * has timed out.
+	 */
+	boolean claim(ReservationEntity reservation) {
+		if (mongo == null) {
+			return true;
+		}
+		var key = claimKey(reservation.chalet(), reservation.date());
+		for (var attempt = 0; attempt < 2; attempt++) {
+			try {
+				mongo.upsert(
+						Query.query(Criteria.where("_id").is(key).and("reservation").is(reservation.id())),
+						new Update().setOnInsert("claimedAt", new Date()),
+						CLAIMS
+				);
+				return true;
+			} catch (DuplicateKeyException e) {
+				var claim = mongo.findById(key, Document.class, CLAIMS);
+				if (claim != null && !abandoned(claim, reservation.chalet(), reservation.date())) {
+					return false;
+				}
+				if (claim != null) {
+					mongo.remove(Query.query(Criteria.where("_id").is(key).and("reservation").is(claim.get("reservation"))), CLAIMS);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the claim of the reservation on the chalet-day, unless the reservation is stored with
+	 * that chalet and date.
+	 */
+	void unclaim(UUID id, String chalet, LocalDate date) {
+		if (mongo == null || stored(Query.query(Criteria.where("_id").is(id).and("chalet").is(chalet).and("date").is(date)))) {
+			return;
+		}
+		mongo.remove(Query.query(Criteria.where("_id").is(claimKey(chalet, date)).and("reservation").is(id)), CLAIMS);
+	}
+
+	/**
+	 * Frees a chalet-day reserved for a reservation which could not be saved, unless MongoDB has
+	 * another reservation for it.
+	 */
+	void cancel(String chalet, LocalDate date) {
+		if (mongo == null) {
+			return;
+		}
+		doneSaving(chalet, date);
+		release(chalet, date);
+	}
+
+	/**
+	 * Frees the chalet-day, unless MongoDB still has a reservation for it or a reservation for it is
+	 * being saved.
+	 */
+	void release(String chalet, LocalDate date) {
+		if (mongo == null || stillBooked(chalet, date)) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			var days = booked.get(chalet);
+			var pending = saving.get(chalet);
+			// Bookings made since the first check have either been saved, or are still being saved
+			if (days != null && (pending == null || !pending.get(day(date))) && !stillBooked(chalet, date)) {
+				days.clear(day(date));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void saved(List<ReservationEntity> reservations) {
+		lock.writeLock().lock();
+		try {
+			reservations.forEach(reservation -> {
+				book(reservation.chalet(), reservation.date());
+				doneSaving(reservation.chalet(), reservation.date());
+			});
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void deleted(ReservationEntity reservation) {
+		unclaim(reservation.id(), reservation.chalet(), reservation.date());
+		release(reservation.chalet(), reservation.date());
+	}
+
+	/**
+	 * Marks the chalet-day as booked, returning whether it was free. Requires the write lock.
+	 */
+	private boolean book(String chalet, LocalDate date) {
+		var days = booked.computeIfAbsent(chalet, key -> new BitSet());
+		if (days.get(day(date))) {
+			return false;
+		}
+		days.set(day(date));
+		return true;
+	}
+
+	/**
+	 * Marks the reservation of the chalet-day as no longer being saved. Requires the write lock.
+	 */
+	private void doneSaving(String chalet, LocalDate date) {
+		var pending = saving.get(chalet);
+		if (pending != null) {
+			pending.clear(day(date));
+		}
+	}
+
+	private boolean stillBooked(String chalet, LocalDate date) {
+		return stored(Query.query(Criteria.where("chalet").is(chalet).and("date").is(date)));
+	}
+
+	/**
+	 * Whether the claim has timed out without its reservation being stored on the chalet-day.
+	 */
+	private boolean abandoned(Document claim, String chalet, LocalDate date) {
+		var claimedAt = claim.getDate("claimedAt");
+		return claimedAt != null
+				&& claimedAt.toInstant().isBefore(Instant.now().minus(CLAIM_TIMEOUT))
+				&& !stored(Query.query(Criteria.where("_id").is(claim.get("reservation")).and("chalet").is(chalet).and("date").is(date)));
+	}
+
+	private boolean stored(Query query) {
+		// The previous layout first, like ReservationRepository does
+		return previous.migrating() && previous.exists(query, ReservationEntity.class) || mongo.exists(query, ReservationEntity.class);
+	}
+
+	private void warm(String collection) {
+		var query = new Query().cursorBatchSize(ReservationRepository.DEFAULT_BATCH_SIZE);
+		query.fields().include(fields.chalet(), fields.date(), fields.other().chalet(), fields.other().date()).exclude("_id");
+		try (var reservations = mongo.stream(query, Document.class, collection)) {
+			reservations.forEach(this::reserve);
+		}
+	}
+
+	private void reserve(Document reservation) {
+		var chalet = reservation.getString(name(reservation, ReservationFields::chalet));
+		var date = reservation.getDate(name(reservation, ReservationFields::date));
+		if (chalet != null && date != null) {
+			lock.writeLock().lock();
+			try {
+				book(chalet, toLocalDate(date));
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private void release(Document reservation, @Nullable BsonDocument key) {
+		var chalet = reservation.getString(name(reservation, ReservationFields::chalet));
+		var date = reservation.getDate(name(reservation, ReservationFields::date));
+		if (chalet != null && date != null) {
+			if (key != null && key.isBinary("_id")) {
+				unclaim(key.getBinary("_id").asUuid(), chalet, toLocalDate(date));
+			}
+			release(chalet, toLocalDate(date));
+		}
+	}
+
+	/**
+	 * The name of the field in our layout, or in the other one for reservations not migrated yet.
+	 */
+	private String name(Document reservation, Function<ReservationFields, String> field) {
+		var name = field.apply(fields);
+		return reservation.containsKey(name) ? name : field.apply(fields.other());
+	}
+
+	/**
+	 * Deletes free the chalet-day of the pre-image. Updates and replacements may have moved the
+	 * reservation, so they book the chalet-day of the current document and free that of the
+	 * pre-image, which does nothing when it did not change.
+	 */
+	private void onChange(Message<ChangeStreamDocument<Document>, Document> message) {
+		var event = message.getRaw();
+		if (event == null) {
+			return;
+		}
+		if (event.getFullDocument() != null && event.getOperationType() != OperationType.DELETE) {
+			reserve(event.getFullDocument());
+		}
+		var before = event.getFullDocumentBeforeChange();
+		if (before != null) {
+			release(before, event.getDocumentKey());
+		}
+	}
+
+	/**
+	 * Pre-images allow us to see which chalet and date a deleted reservation had. They require
+	 * MongoDB 6.0, and the right to modify the collection.
+	 */
+	private boolean enablePreImages(String collection) {
+		try {
+			if (!mongo.collectionExists(collection)) {
+				mongo.createCollection(collection);
+			}
+			mongo.executeCommand(new Document("collMod", collection)
+					.append("changeStreamPreAndPostImages", new Document("enabled", true)));
+			return true;
+		} catch (DataAccessException e) {
+			log.warn("Could not enable pre-images on {}, chalets of reservations deleted by other nodes remain booked", collection, e);
+			return false;
+		}
+	}
+
+	/**
+	 * The current time of the cluster, to start the change stream at. Only replica sets report it.
+	 */
+	@Nullable
+	private BsonTimestamp operationTime() {
+		var reply = mongo.executeCommand(new Document("hello", 1));
+		var time = reply.get("operationTime");
+		return time instanceof BsonTimestamp timestamp ? timestamp : null;
+	}
+
+	private static String claimKey(String chalet, LocalDate date) {
+		return chalet + "/" + date;
+	}
+
+	/**
+	 * Days since the epoch, as index in a bitset. Dates before 1970 are not supported.
+	 */
+	private static int day(LocalDate date) {
+		return Math.toIntExact(Math.max(0, date.toEpochDay()));
+	}
+
+	private static LocalDate toLocalDate(Date date) {
+		return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+}
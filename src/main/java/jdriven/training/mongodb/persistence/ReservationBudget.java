@@ -0,0 +1,81 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.lang.Nullable;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mongodb.core.MongoAction;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The deadline of the repository call running on the current thread, as set by
+ * {@link ReservationResilience}. Queries pass the remaining time to MongoDB as maxTimeMS, such that
+ * MongoDB stops working on them once the caller has given up. Writes pass it as wtimeout, see
+ * {@link #writeConcern}. Without a deadline, queries and writes are not limited.
+ */
+public final class ReservationBudget {
+
+	private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+	private ReservationBudget() {
+	}
+
+	/**
+	 * Sets the deadline, in terms of {@link System#nanoTime()}, and returns the previous one, which
+	 * should be restored by {@link #exit}.
+	 */
+	@Nullable
+	static Long enter(long deadline) {
+		var previous = DEADLINE.get();
+		DEADLINE.set(deadline);
+		return previous;
+	}
+
+	static void exit(@Nullable Long previous) {
+		if (previous == null) {
+			DEADLINE.remove();
+		} else {
+			DEADLINE.set(previous);
+		}
+	}
+
+	/**
+	 * Milliseconds left until the deadline, or 0 when there is none, which MongoDB takes as no limit.
+	 */
+	static long remainingMillis() {
+		var deadline = DEADLINE.get();
+		if (deadline == null) {
+			return 0;
+		}
+		var remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		if (remaining <= 0) {
+			throw new QueryTimeoutException("Latency budget exhausted before querying MongoDB");
+		}
+		return remaining;
+	}
+
+	/**
+	 * Write concern resolver of the templates used by the repository. Writes get the time left as
+	 * wtimeout, so waiting for replication ends once the caller has given up, and are not sent at all
+	 * once the budget is spent. MongoTemplate does not resolve write concerns for findAndModify, so
+	 * those are only limited by the socket timeout.
+	 */
+	@Nullable
+	public static WriteConcern writeConcern(MongoAction action) {
+		var configured = action.getDefaultWriteConcern();
+		var remaining = remainingMillis();
+		if (remaining == 0 || configured != null && !configured.isAcknowledged()) {
+			return configured;
+		}
+		return (configured == null ? WriteConcern.ACKNOWLEDGED : configured).withWTimeout(remaining, TimeUnit.MILLISECONDS);
+	}
+
+	static Query apply(Query query) {
+		var remaining = remainingMillis();
+		if (remaining > 0) {
+			query.maxTimeMsec(remaining);
+		}
+		return query;
+	}
+}
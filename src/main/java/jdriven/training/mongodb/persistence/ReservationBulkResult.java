@@ -0,0 +1,42 @@
+package jdriven.training.mongodb.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public record ReservationBulkResult(
+		long inserted,
+		List<BatchFailure> failures
+) {
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	public record BatchFailure(
+			int batch,
+			int attempted,
+			int inserted,
+			List<String> errors
+	) {}
+
+	static class Builder {
+
+		private final List<BatchFailure> failures = new ArrayList<>();
+		private long inserted;
+		private int batches;
+
+		void succeeded(int count) {
+			inserted += count;
+			batches++;
+		}
+
+		void failed(int attempted, int count, List<String> errors) {
+			inserted += count;
+			failures.add(new BatchFailure(batches++, attempted, count, errors));
+		}
+
+		ReservationBulkResult build() {
+			return new ReservationBulkResult(inserted, List.copyOf(failures));
+		}
+	}
+}
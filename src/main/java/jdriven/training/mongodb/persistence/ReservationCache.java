@@ -0,0 +1,119 @@
+package jdriven.training.mongodb.persistence;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.lang.Nullable;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jdriven.training.mongodb.config.MongoDbProperties;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Our check-in desks look up the same few thousand reservations of the day over and over again. When
+ * enabled, this cache keeps recently found reservations in memory for a limited time. Writes by the
+ * repository update the cache directly, while writes by other nodes are picked up from the change
+ * stream of the reservation collection.
+ */
+@Component
+public class ReservationCache {
+
+	@Nullable
+	private final Cache<UUID, ReservationEntity> cache;
+
+	@Autowired
+	public ReservationCache(MongoDbProperties properties, MessageListenerContainer container, MeterRegistry registry) {
+		var settings = properties.cache();
+		if (!settings.enabled()) {
+			this.cache = null;
+			return;
+		}
+
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(settings.maximumSize())
+				.expireAfterWrite(settings.ttl())
+				.recordStats()
+				.build();
+
+		CaffeineCacheMetrics.monitor(registry, cache, "reservation");
+		container.register(ChangeStreamRequest.builder(this::onChange)
+				.collection("reservation")
+				.build(), Document.class);
+	}
+
+	private ReservationCache() {
+		this.cache = null;
+	}
+
+	/**
+	 * A cache which does not cache at all, every lookup goes to the database.
+	 */
+	public static ReservationCache disabled() {
+		return new ReservationCache();
+	}
+
+	public Optional<ReservationEntity> get(UUID id, Function<UUID, ReservationEntity> loader) {
+		if (cache == null) {
+			return Optional.ofNullable(loader.apply(id));
+		}
+		return Optional.ofNullable(cache.get(id, loader));
+	}
+
+	/**
+	 * The cached reservation, without loading it when it is not cached, for callers which load it
+	 * themselves such as {@link ReactiveReservationRepository}.
+	 */
+	public Optional<ReservationEntity> getIfPresent(UUID id) {
+		return cache == null ? Optional.empty() : Optional.ofNullable(cache.getIfPresent(id));
+	}
+
+	public void put(ReservationEntity entity) {
+		if (cache != null) {
+			cache.put(entity.id(), entity);
+		}
+	}
+
+	public void evict(UUID id) {
+		if (cache != null) {
+			cache.invalidate(id);
+		}
+	}
+
+	public void evictAll() {
+		if (cache != null) {
+			cache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Hit, miss and eviction counters, which are also published as cache.* metrics.
+	 */
+	public CacheStats stats() {
+		return cache == null ? CacheStats.empty() : cache.stats();
+	}
+
+	private void onChange(Message<ChangeStreamDocument<Document>, Document> message) {
+		var event = message.getRaw();
+		if (event == null || event.getOperationType() == OperationType.INSERT) {
+			return;
+		}
+
+		var key = event.getDocumentKey();
+		if (key != null && key.isBinary("_id")) {
+			evict(key.getBinary("_id").asUuid());
+		} else {
+			evictAll();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.config.MongoDbProperties;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Count-based circuit breaker over the outcomes of the last windowSize calls. While open, calls are
+ * rejected without reaching MongoDB, giving a struggling node room to recover. Once the open
+ * duration has passed, a limited number of trial calls decides whether to close or open again.
+ */
+final class ReservationCircuitBreaker {
+
+	enum State {
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private final MongoDbProperties.CircuitBreaker settings;
+	private final LongSupplier clock;
+	private final boolean[] window;
+
+	private State state = State.CLOSED;
+	private int position;
+	private int observed;
+	private int failures;
+	private long openUntil;
+	private int trials;
+	private int trialSuccesses;
+
+	ReservationCircuitBreaker(MongoDbProperties.CircuitBreaker settings, LongSupplier clock) {
+		if (settings.windowSize() < 1 || settings.halfOpenCalls() < 1) {
+			throw new IllegalArgumentException("Circuit breaker window and half-open calls must be positive");
+		}
+		this.settings = settings;
+		this.clock = clock;
+		this.window = new boolean[settings.windowSize()];
+	}
+
+	/**
+	 * Whether a call may proceed. Calls that may proceed must report their outcome by {@link #record}.
+	 */
+	synchronized boolean tryAcquire() {
+		if (state == State.OPEN && clock.getAsLong() - openUntil >= 0) {
+			state = State.HALF_OPEN;
+			trials = 0;
+			trialSuccesses = 0;
+		}
+		return switch (state) {
+			case CLOSED -> true;
+			case HALF_OPEN -> trials++ < settings.halfOpenCalls();
+			case OPEN -> false;
+		};
+	}
+
+	synchronized void record(boolean failed) {
+		if (state == State.HALF_OPEN) {
+			if (failed) {
+				open();
+			} else if (++trialSuccesses >= settings.halfOpenCalls()) {
+				close();
+			}
+			return;
+		}
+		if (state == State.OPEN) {
+			return;
+		}
+
+		if (observed == window.length) {
+			if (window[position]) {
+				failures--;
+			}
+		} else {
+			observed++;
+		}
+		window[position] = failed;
+		if (failed) {
+			failures++;
+		}
+		position = (position + 1) % window.length;
+
+		if (observed >= settings.minimumCalls() && failures >= settings.failureRateThreshold() * observed) {
+			open();
+		}
+	}
+
+	synchronized State state() {
+		return state;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openUntil = clock.getAsLong() + settings.openDuration().toNanos();
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		position = 0;
+		observed = 0;
+		failures = 0;
+	}
+}
@@ -0,0 +1,74 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.config.MongoDbProperties;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent {@link ReservationRepository} operations per type of operation.
+ * Especially with virtual threads, there is no thread pool left to bound the load we put on
+ * MongoDB, so callers wait here for a permit and give up after the configured timeout. Note that
+ * the permit of a streaming operation is released once the stream is returned, not when consumed.
+ * It runs within {@link ReservationResilience}, which does not count its rejections as failures.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class ReservationConcurrencyLimiter {
+
+	public enum OperationType {
+		READ, WRITE, AGGREGATION;
+
+		static OperationType of(String method) {
+			if (method.startsWith("pipeline")) {
+				return AGGREGATION;
+			}
+			if (method.startsWith("find") || method.startsWith("query") || method.startsWith("stream") || method.equals("search")) {
+				return READ;
+			}
+			return WRITE;
+		}
+	}
+
+	private final Map<OperationType, Semaphore> permits = new EnumMap<>(OperationType.class);
+	private final Duration acquireTimeout;
+
+	public ReservationConcurrencyLimiter(MongoDbProperties properties) {
+		var execution = properties.execution();
+		permits.put(OperationType.READ, new Semaphore(execution.maxConcurrentReads(), true));
+		permits.put(OperationType.WRITE, new Semaphore(execution.maxConcurrentWrites(), true));
+		permits.put(OperationType.AGGREGATION, new Semaphore(execution.maxConcurrentAggregations(), true));
+		this.acquireTimeout = execution.acquireTimeout();
+	}
+
+	@Around("execution(public * jdriven.training.mongodb.persistence.ReservationRepository.*(..))")
+	public Object limit(ProceedingJoinPoint joinPoint) throws Throwable {
+		var type = OperationType.of(joinPoint.getSignature().getName());
+		var semaphore = permits.get(type);
+		if (!semaphore.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+			throw new ReservationRejectedException("No permit for " + type + " operation within " + acquireTimeout);
+		}
+		try {
+			return joinPoint.proceed();
+		} finally {
+			semaphore.release();
+		}
+	}
+
+	/**
+	 * Number of operations of the given type that can start without waiting.
+	 */
+	public int available(OperationType type) {
+		return permits.get(type).availablePermits();
+	}
+}
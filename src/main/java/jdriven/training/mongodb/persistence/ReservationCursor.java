@@ -0,0 +1,34 @@
+package jdriven.training.mongodb.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position in a list of reservations ordered by date and id. Clients receive it as an opaque token,
+ * they should not depend on its contents.
+ */
+record ReservationCursor(
+		LocalDate date,
+		UUID id,
+		boolean ascending
+) {
+
+	String encode() {
+		var value = date.toEpochDay() + ":" + id + ":" + (ascending ? "a" : "d");
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static ReservationCursor decode(String token) {
+		try {
+			var parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+			if (parts.length != 3 || !(parts[2].equals("a") || parts[2].equals("d"))) {
+				throw new IllegalArgumentException("Invalid token: " + token);
+			}
+			return new ReservationCursor(LocalDate.ofEpochDay(Long.parseLong(parts[0])), UUID.fromString(parts[1]), parts[2].equals("a"));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid token: " + token, e);
+		}
+	}
+}
@@ -8,6 +8,7 @@ import org.springframework.data.mongodb.core.mapping.MongoId;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
 
 @Builder
@@ -31,4 +32,13 @@ public record ReservationEntity(
 		Boolean hasInsurance,
 		@Nullable
 		List<String> damages
-) {}
+) {
+
+	/**
+	 * The booker is also stored in lowercase, which allows an indexed, case-insensitive prefix search.
+	 * It is only used for searching, so it is not part of the entity, see {@link ReservationSearchField}.
+	 */
+	public static String lowercase(String booker) {
+		return booker == null ? null : booker.toLowerCase(Locale.ROOT);
+	}
+}
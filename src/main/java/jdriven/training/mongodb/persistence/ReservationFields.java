@@ -0,0 +1,157 @@
+package jdriven.training.mongodb.persistence;
+
+import org.springframework.data.mapping.model.FieldNamingStrategy;
+import org.springframework.data.mapping.model.PropertyNameFieldNamingStrategy;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Names under which the properties of a {@link ReservationEntity} are stored. Usually these are the
+ * property names, the compact layout of mongodb.schema.compact uses names of one or two characters
+ * instead. The name of every field is stored in every reservation, so this saves storage, cache and
+ * network for each of them.
+ * <p>
+ * Queries, updates and pipelines built with Criteria, Update and Aggregation on ReservationEntity are
+ * mapped by MongoTemplate, and need no changes. Only code building documents by hand, or reading them
+ * as Document, has to look up the names here.
+ */
+public final class ReservationFields {
+
+	public static final ReservationFields VERBOSE = new ReservationFields(Map.of(
+			"price", "price",
+			"date", "date",
+			"chalet", "chalet",
+			"booker", "booker",
+			"guests", "guests",
+			"hasPaid", "hasPaid",
+			"hasInsurance", "hasInsurance",
+			"damages", "damages",
+			"bookerLowercase", "bookerLowercase"
+	));
+
+	public static final ReservationFields COMPACT = new ReservationFields(Map.of(
+			"price", "p",
+			"date", "d",
+			"chalet", "c",
+			"booker", "b",
+			"guests", "g",
+			"hasPaid", "pd",
+			"hasInsurance", "in",
+			"damages", "dm",
+			"bookerLowercase", "bl"
+	));
+
+	private final Map<String, String> names;
+	private final Map<String, String> properties = new HashMap<>();
+
+	private ReservationFields(Map<String, String> names) {
+		this.names = names;
+		names.forEach((property, name) -> properties.put(name, property));
+	}
+
+	public static ReservationFields of(boolean compact) {
+		return compact ? COMPACT : VERBOSE;
+	}
+
+	/**
+	 * The layout the given converter maps reservations to.
+	 */
+	public static ReservationFields of(MongoConverter converter) {
+		var price = converter.getMappingContext()
+				.getRequiredPersistentEntity(ReservationEntity.class)
+				.getRequiredPersistentProperty("price");
+		return price.getFieldName().equals(COMPACT.price()) ? COMPACT : VERBOSE;
+	}
+
+	/**
+	 * Something built once for each layout, such as a prepared query.
+	 */
+	static <T> Map<ReservationFields, T> each(Function<ReservationFields, T> factory) {
+		return Map.of(VERBOSE, factory.apply(VERBOSE), COMPACT, factory.apply(COMPACT));
+	}
+
+	public boolean compact() {
+		return this == COMPACT;
+	}
+
+	/**
+	 * The layout this one replaces, or is replaced by.
+	 */
+	public ReservationFields other() {
+		return compact() ? VERBOSE : COMPACT;
+	}
+
+	/**
+	 * The stored name of the given property, or the name itself for anything else, such as _id.
+	 */
+	public String name(String property) {
+		return names.getOrDefault(property, property);
+	}
+
+	/**
+	 * The property stored under the given name, or the name itself for anything else.
+	 */
+	public String property(String name) {
+		return properties.getOrDefault(name, name);
+	}
+
+	/**
+	 * Stored names by property name.
+	 */
+	public Map<String, String> names() {
+		return names;
+	}
+
+	public String price() {
+		return names.get("price");
+	}
+
+	public String date() {
+		return names.get("date");
+	}
+
+	public String chalet() {
+		return names.get("chalet");
+	}
+
+	public String booker() {
+		return names.get("booker");
+	}
+
+	public String guests() {
+		return names.get("guests");
+	}
+
+	public String hasPaid() {
+		return names.get("hasPaid");
+	}
+
+	public String hasInsurance() {
+		return names.get("hasInsurance");
+	}
+
+	public String damages() {
+		return names.get("damages");
+	}
+
+	public String bookerLowercase() {
+		return names.get("bookerLowercase");
+	}
+
+	/**
+	 * Applies this layout to the properties of ReservationEntity, other types keep their property names.
+	 */
+	public FieldNamingStrategy namingStrategy() {
+		return property -> property.getOwner().getType() == ReservationEntity.class
+				? name(property.getName())
+				: PropertyNameFieldNamingStrategy.INSTANCE.getFieldName(property);
+	}
+
+	@Override
+	public String toString() {
+		return compact() ? "compact" : "verbose";
+	}
+}
@@ -0,0 +1,179 @@
+package jdriven.training.mongodb.persistence;
+
+import jakarta.annotation.PostConstruct;
+import jdriven.training.mongodb.config.PreviousLayoutMongoTemplate;
+import lombok.AllArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every query in {@link ReservationRepository} should be backed by one of the indexes below. When
+ * adding a query with a new shape, add its index here as well. Creating an index that already exists
+ * is a no-op, so the indexes are simply (re)created at startup. Indexes are defined on property names,
+ * which are mapped to the names the reservations are stored with, see {@link ReservationFields}.
+ * While a schema migration runs, the indexes also exist for the previous layout, suffixed with its
+ * name, see {@link #named}.
+ */
+@Component
+@AllArgsConstructor
+public class ReservationIndexes {
+
+	public static final String DATE_PRICE = "date_price_summary";
+	public static final String DATE_ID = "date_id_summary";
+	public static final String SEARCH = "date_id_bookerLowercase";
+	public static final String BOOKER_SEARCH = "bookerLowercase_date_id";
+
+	/**
+	 * Indexes that have been replaced by one of the definitions, and are dropped at startup.
+	 */
+	public static final List<String> OBSOLETE = List.of("date_price", "date_id");
+
+	public static final List<IndexDefinition> DEFINITIONS = List.of(
+			// queryExample_mostExpensive, pipelineExample_checkinList and month range matches, and
+			// covers the fields of a ReservationSummary
+			new Index()
+					.named(DATE_PRICE)
+					.on("date", Sort.Direction.ASC)
+					.on("price", Sort.Direction.DESC)
+					.on("_id", Sort.Direction.ASC)
+					.on("booker", Sort.Direction.ASC)
+					.on("chalet", Sort.Direction.ASC),
+			// findPageByDate and sorting by date in queryExercise_pageAndSort, and covers the fields
+			// of a ReservationSummary
+			new Index()
+					.named(DATE_ID)
+					.on("date", Sort.Direction.ASC)
+					.on("_id", Sort.Direction.ASC)
+					.on("booker", Sort.Direction.ASC)
+					.on("chalet", Sort.Direction.ASC)
+					.on("price", Sort.Direction.ASC),
+			// queryExercise_damageClaims, only reservations with damages are of interest
+			new Index()
+					.named("chalet_hasInsurance_damages")
+					.on("chalet", Sort.Direction.ASC)
+					.on("hasInsurance", Sort.Direction.ASC)
+					.partial(PartialIndexFilter.of(Criteria.where("damages").exists(true))),
+			// pipelineExercise_insuranceClaims
+			new Index()
+					.named("chalet_date")
+					.on("chalet", Sort.Direction.ASC)
+					.on("date", Sort.Direction.ASC)
+	);
+
+	/**
+	 * Indexes of the archive collections, which only serve the date-based queries routed to them by
+	 * {@link ReservationArchive}.
+	 */
+	public static final List<IndexDefinition> ARCHIVE_DEFINITIONS = DEFINITIONS.stream()
+			.filter(index -> List.of(DATE_PRICE, DATE_ID).contains(index.getIndexOptions().getString("name")))
+			.toList();
+
+	private final MongoTemplate mongo;
+	private final PreviousLayoutMongoTemplate previous;
+
+	/**
+	 * Index of {@link ReservationRepository#search} by short prefixes, which walks it in the order of
+	 * date and id, and matches the prefix of the booker on the index keys. The lowercase booker is not
+	 * a property of the entity, so it is named as stored.
+	 */
+	static IndexDefinition search(ReservationFields fields) {
+		return new Index()
+				.named(SEARCH)
+				.on("date", Sort.Direction.ASC)
+				.on("_id", Sort.Direction.ASC)
+				.on(fields.bookerLowercase(), Sort.Direction.ASC);
+	}
+
+	/**
+	 * Index of {@link ReservationRepository#search} by selective prefixes, which seeks to the range of
+	 * bookers starting with the prefix and only sorts the few reservations found there.
+	 */
+	static IndexDefinition searchByBooker(ReservationFields fields) {
+		return new Index()
+				.named(BOOKER_SEARCH)
+				.on(fields.bookerLowercase(), Sort.Direction.ASC)
+				.on("date", Sort.Direction.ASC)
+				.on("_id", Sort.Direction.ASC);
+	}
+
+	/**
+	 * All indexes of the reservation collection, for reservations stored with the given field names.
+	 */
+	static List<IndexDefinition> definitions(ReservationFields fields) {
+		var definitions = new ArrayList<>(DEFINITIONS);
+		definitions.add(search(fields));
+		definitions.add(searchByBooker(fields));
+		return definitions;
+	}
+
+	/**
+	 * The name of the given index when created for reservations still stored in the given layout.
+	 */
+	public static String named(String index, ReservationFields layout) {
+		return index + "_" + layout;
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		var fields = ReservationFields.of(mongo.getConverter());
+		var operations = mongo.indexOps(ReservationEntity.class);
+		ensure(operations, definitions(fields), fields);
+		var other = fields.other();
+		if (previous.migrating()) {
+			var definitions = definitions(other).stream().map(definition -> named(definition, other)).toList();
+			ensure(previous.indexOps(ReservationEntity.class), definitions, other);
+		} else {
+			operations.getIndexInfo().stream()
+					.map(IndexInfo::getName)
+					.filter(name -> name.endsWith("_" + other))
+					.forEach(operations::dropIndex);
+		}
+	}
+
+	private static IndexDefinition named(IndexDefinition definition, ReservationFields layout) {
+		var options = new Document(definition.getIndexOptions());
+		options.put("name", named(options.getString("name"), layout));
+		return new IndexDefinition() {
+			@Override
+			public Document getIndexKeys() {
+				return definition.getIndexKeys();
+			}
+
+			@Override
+			public Document getIndexOptions() {
+				return options;
+			}
+		};
+	}
+
+	/**
+	 * Creates the given indexes, after dropping the obsolete ones and those created for the other
+	 * layout of the reservation documents. The operations should map the definitions to that layout.
+	 */
+	static void ensure(IndexOperations operations, List<IndexDefinition> definitions, ReservationFields fields) {
+		operations.getIndexInfo().stream()
+				.filter(index -> OBSOLETE.contains(index.getName()) || stale(index, definitions, fields))
+				.map(IndexInfo::getName)
+				.forEach(operations::dropIndex);
+		definitions.forEach(operations::ensureIndex);
+	}
+
+	private static boolean stale(IndexInfo index, List<IndexDefinition> definitions, ReservationFields fields) {
+		var keys = index.getIndexFields().stream().map(IndexField::getKey).toList();
+		return definitions.stream()
+				.filter(definition -> index.getName().equals(definition.getIndexOptions().getString("name")))
+				.anyMatch(definition -> !definition.getIndexKeys().keySet().stream().map(fields::name).toList().equals(keys));
+	}
+}
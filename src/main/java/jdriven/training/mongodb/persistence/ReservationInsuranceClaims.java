@@ -0,0 +1,309 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.lang.Nullable;
+import jakarta.annotation.PreDestroy;
+import jdriven.training.mongodb.config.AnalyticsMongoTemplate;
+import jdriven.training.mongodb.config.MongoDbProperties;
+import jdriven.training.mongodb.config.PreviousLayoutMongoTemplate;
+import jdriven.training.mongodb.persistence.views.ReservationInsuranceClaim;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.Fields;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Our insurer asks for the claims of thousands of chalets over whole seasons at once, which as a
+ * single pipeline means one long running aggregation sorting everything. Instead, the chalets and
+ * dates are split into shards, each aggregated by its own pipeline on a bounded number of threads.
+ * The results are streamed back in the order of {@link ReservationRepository#pipelineExercise_insuranceClaims}:
+ * by chalet as requested, then by date, and each reservation's damages in the order they were filed.
+ * <p>
+ * Only a limited number of shards is started ahead of the shard being read, so unread claims stay in
+ * MongoDB instead of in memory. Close the stream when not reading it to the end.
+ * <p>
+ * Every shard is aggregated in each collection holding reservations of its dates: the reservation
+ * collection, the {@link ReservationArchive} collection of each year before the horizon, and, while a
+ * schema migration runs, the reservation collection once more in the previous layout. Claims on the
+ * same chalet and date are returned in that order of collections. A reservation that is being moved
+ * into the archive at that moment may be reported twice.
+ * <p>
+ * Like all reports, the shards are aggregated on secondaries when available, see {@link AnalyticsMongoTemplate},
+ * except those in the previous layout, which are read through {@link PreviousLayoutMongoTemplate}.
+ */
+@Component
+public class ReservationInsuranceClaims {
+
+	public static final int DEFAULT_CHALETS_PER_SHARD = 200;
+	public static final int DEFAULT_DAYS_PER_SHARD = 31;
+
+	private final AnalyticsMongoTemplate mongo;
+	private final PreviousLayoutMongoTemplate previous;
+	private final ReservationArchive archive;
+	private final int parallelism;
+	private final ExecutorService executor;
+
+	public ReservationInsuranceClaims(AnalyticsMongoTemplate mongo, PreviousLayoutMongoTemplate previous, ReservationArchive archive,
+									  MongoDbProperties properties) {
+		this.mongo = mongo;
+		this.previous = previous;
+		this.archive = archive;
+		this.parallelism = properties.execution().maxConcurrentAggregations();
+		this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			var thread = new Thread(runnable, "reservation-insurance-claims");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	public Stream<ReservationInsuranceClaim> stream(List<String> chalets, LocalDate from, LocalDate to) {
+		return stream(chalets, from, to, DEFAULT_CHALETS_PER_SHARD, DEFAULT_DAYS_PER_SHARD);
+	}
+
+	/**
+	 * Streams the claims of the given chalets between from and to, both inclusive, where each shard
+	 * covers at most chaletsPerShard chalets and daysPerShard days.
+	 */
+	public Stream<ReservationInsuranceClaim> stream(List<String> chalets, LocalDate from, LocalDate to, int chaletsPerShard, int daysPerShard) {
+		if (chaletsPerShard < 1 || daysPerShard < 1) {
+			throw new IllegalArgumentException("Shards must contain at least one chalet and one day");
+		}
+		if (to.isBefore(from)) {
+			throw new IllegalArgumentException("Range ends at " + to + ", before it starts at " + from);
+		}
+
+		var ordered = List.copyOf(new LinkedHashSet<>(chalets));
+		var positions = new HashMap<String, Integer>();
+		for (int i = 0; i < ordered.size(); i++) {
+			positions.put(ordered.get(i), i);
+		}
+
+		var sources = sources(from, to);
+		var shards = new ArrayDeque<Shard>();
+		for (int start = 0; start < ordered.size(); start += chaletsPerShard) {
+			var group = ordered.subList(start, Math.min(start + chaletsPerShard, ordered.size()));
+			for (var day = from; !day.isAfter(to); day = day.plusDays(daysPerShard)) {
+				var end = day.plusDays(daysPerShard - 1);
+				var last = end.isAfter(to) ? to : end;
+				for (int i = 0; i < sources.size(); i++) {
+					if (sources.get(i).covers(day, last)) {
+						shards.add(new Shard(start, group, day, last, i, sources.get(i)));
+					}
+				}
+			}
+		}
+
+		var merge = new Merge(shards, positions);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(merge::close);
+	}
+
+	/**
+	 * The collections holding reservations between from and to, the previous layout first, like
+	 * {@link ReservationRepository} does.
+	 */
+	private List<Source> sources(LocalDate from, LocalDate to) {
+		var collection = mongo.getCollectionName(ReservationEntity.class);
+		var sources = new ArrayList<Source>();
+		if (previous.migrating()) {
+			sources.add(new Source(previous, collection, null));
+		}
+		sources.add(new Source(mongo, collection, null));
+		if (archive.covers(from)) {
+			var last = Math.min(to.getYear(), archive.horizon().getYear());
+			for (int year = from.getYear(); year <= last; year++) {
+				sources.add(new Source(mongo, ReservationArchive.collection(year), year));
+			}
+		}
+		return sources;
+	}
+
+	/**
+	 * A collection to aggregate claims in, through the template mapping its layout. Archive
+	 * collections only hold the reservations of their year.
+	 */
+	private record Source(MongoTemplate template, String collection, @Nullable Integer year) {
+
+		boolean covers(LocalDate from, LocalDate to) {
+			return year == null || from.getYear() <= year && year <= to.getYear();
+		}
+	}
+
+	/**
+	 * Claims of a group of chalets within a range of dates in one source. Shards of the same group
+	 * cover distinct dates or sources, so their claims can be merged by chalet, date and source.
+	 */
+	private record Shard(int group, List<String> chalets, LocalDate from, LocalDate to, int order, Source source) {}
+
+	private Stream<ReservationInsuranceClaim> aggregate(Shard shard) {
+		var pipeline = Aggregation.newAggregation(ReservationEntity.class,
+				Aggregation.match(Criteria.where("chalet").in(shard.chalets())
+						.and("date").gte(shard.from()).lte(shard.to())
+						.and("hasInsurance").is(true)
+						.and("damages").exists(true).ne(List.of())),
+				Aggregation.unwind("damages", "damageIndex"),
+				Aggregation.addFields()
+						.addField("chaletIndex").withValue(ArrayOperators.IndexOfArray.arrayOf(shard.chalets()).indexOf(Fields.field("chalet")))
+						.build(),
+				Aggregation.sort(Sort.by("chaletIndex", "date", "_id", "damageIndex")),
+				Aggregation.project("date", "chalet", "hasInsurance").and("damages").as("damage").andExclude("_id")
+		).withOptions(AggregationOptions.builder()
+				// Sorting the claims of a large shard can exceed the 100MB MongoDB allows in memory
+				.allowDiskUse(true)
+				.build());
+
+		return shard.source().template().aggregateStream(pipeline, shard.source().collection(), ReservationInsuranceClaim.class);
+	}
+
+	private final class Merge implements Iterator<ReservationInsuranceClaim> {
+
+		private final Deque<Shard> pending;
+		private final Deque<Started> started = new ArrayDeque<>();
+		private final PriorityQueue<Head> heads;
+		private final Set<Stream<ReservationInsuranceClaim>> opened = new HashSet<>();
+		private boolean closed;
+
+		private Merge(Deque<Shard> pending, Map<String, Integer> positions) {
+			this.pending = pending;
+			this.heads = new PriorityQueue<>(Comparator
+					.comparing((Head head) -> positions.get(head.claim.chalet()))
+					.thenComparing(head -> head.claim.date())
+					.thenComparingInt(Head::order));
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (heads.isEmpty()) {
+				if (pending.isEmpty() && started.isEmpty()) {
+					return false;
+				}
+				readNextGroup();
+			}
+			return true;
+		}
+
+		@Override
+		public ReservationInsuranceClaim next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			var head = heads.poll();
+			var claim = head.claim;
+			if (head.claims.hasNext()) {
+				heads.add(new Head(head.claims.next(), head.claims, head.stream, head.order));
+			} else {
+				release(head.stream);
+			}
+			return claim;
+		}
+
+		/**
+		 * Waits for all shards of the next group of chalets, while the shards after it are started
+		 * in the background.
+		 */
+		private void readNextGroup() {
+			startAhead();
+			var group = started.peekFirst().shard.group();
+			while (!started.isEmpty() && started.peekFirst().shard.group() == group) {
+				var next = started.pollFirst();
+				var stream = await(next.result);
+				var claims = stream.iterator();
+				if (claims.hasNext()) {
+					heads.add(new Head(claims.next(), claims, stream, next.shard.order()));
+				} else {
+					release(stream);
+				}
+				startAhead();
+			}
+		}
+
+		private void startAhead() {
+			while (!pending.isEmpty() && (started.size() < parallelism * 2 || pending.peekFirst().group() == started.peekFirst().shard.group())) {
+				var shard = pending.pollFirst();
+				started.add(new Started(shard, executor.submit(() -> open(shard))));
+			}
+		}
+
+		private Stream<ReservationInsuranceClaim> open(Shard shard) {
+			var stream = aggregate(shard);
+			synchronized (opened) {
+				if (closed) {
+					stream.close();
+					throw new CancellationException("Stream of insurance claims was closed");
+				}
+				opened.add(stream);
+			}
+			return stream;
+		}
+
+		private Stream<ReservationInsuranceClaim> await(Future<Stream<ReservationInsuranceClaim>> result) {
+			try {
+				return result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for insurance claims", e);
+			} catch (ExecutionException e) {
+				close();
+				if (e.getCause() instanceof RuntimeException cause) {
+					throw cause;
+				}
+				throw new IllegalStateException("Failed to aggregate insurance claims", e.getCause());
+			}
+		}
+
+		private void release(Stream<ReservationInsuranceClaim> stream) {
+			synchronized (opened) {
+				opened.remove(stream);
+			}
+			stream.close();
+		}
+
+		private void close() {
+			synchronized (opened) {
+				closed = true;
+				opened.forEach(Stream::close);
+				opened.clear();
+			}
+			started.forEach(shard -> shard.result.cancel(false));
+			started.clear();
+			pending.clear();
+			heads.clear();
+		}
+	}
+
+	private record Started(Shard shard, Future<Stream<ReservationInsuranceClaim>> result) {}
+
+	private record Head(ReservationInsuranceClaim claim, Iterator<ReservationInsuranceClaim> claims, Stream<ReservationInsuranceClaim> stream, int order) {}
+}
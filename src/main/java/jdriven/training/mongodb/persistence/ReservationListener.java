@@ -0,0 +1,24 @@
+package jdriven.training.mongodb.persistence;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Notified by {@link ReservationRepository} after reservations have been written, such that data
+ * derived from reservations can be kept up to date. Listeners are called on the writing thread,
+ * so they should be quick. Writes by other nodes are not reported, use a change stream for those.
+ */
+public interface ReservationListener {
+
+	default void saved(List<ReservationEntity> reservations) {}
+
+	default void bookerCorrected(UUID id, String booker) {}
+
+	/**
+	 * Called when the price of the given reservations changed by the same amount, where the
+	 * reservations still hold their price from before the change.
+	 */
+	default void priceChanged(List<ReservationEntity> reservations, long delta) {}
+
+	default void deleted(ReservationEntity reservation) {}
+}
@@ -0,0 +1,14 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.lang.Nullable;
+
+import java.util.List;
+
+/**
+ * A page of reservations, with the token to request the next page, which is null on the last page.
+ */
+public record ReservationPage(
+		List<ReservationEntity> reservations,
+		@Nullable
+		String nextToken
+) {}
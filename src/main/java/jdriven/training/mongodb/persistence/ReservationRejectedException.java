@@ -0,0 +1,16 @@
+package jdriven.training.mongodb.persistence;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * A repository call rejected before reaching MongoDB, by the open circuit breaker of
+ * {@link ReservationResilience} or for lack of a permit of the {@link ReservationConcurrencyLimiter}.
+ * Retrying later may succeed, but the rejection says nothing about the health of MongoDB, so it
+ * does not count as a failure towards the circuit breaker.
+ */
+public class ReservationRejectedException extends TransientDataAccessResourceException {
+
+	public ReservationRejectedException(String message) {
+		super(message);
+	}
+}
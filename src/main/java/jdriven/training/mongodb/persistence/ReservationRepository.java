@@ -1,25 +1,45 @@
 package jdriven.training.mongodb.persistence;
 
+import com.mongodb.ReadPreference;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.lang.Nullable;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.NotImplementedException;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import jdriven.training.mongodb.config.AnalyticsMongoTemplate;
 import jdriven.training.mongodb.config.MongoDbIdProvider;
+import jdriven.training.mongodb.config.PreviousLayoutMongoTemplate;
 import jdriven.training.mongodb.persistence.views.ReservationCheckin;
+import jdriven.training.mongodb.persistence.views.ReservationCheckinView;
 import jdriven.training.mongodb.persistence.views.ReservationIncomeSummary;
 import jdriven.training.mongodb.persistence.views.ReservationInsuranceClaim;
+import jdriven.training.mongodb.persistence.views.ReservationSummary;
 
 import java.time.LocalDate;
 import java.time.Month;
 import java.time.Year;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Welcome to our humble abode(s). We host a selection of chalets visited by guests all across
@@ -28,26 +48,233 @@ import java.util.UUID;
  * time to write a test suite and comments containing our expectations!
  */
 @Service
-@AllArgsConstructor
+@AllArgsConstructor(onConstructor_ = @Autowired)
 public class ReservationRepository {
 
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    public static final long FIND_ALL_LIMIT = 100_000;
+    /**
+     * The length from which a prefix of a booker's name is rare enough to search by booker first.
+     */
+    public static final int SELECTIVE_PREFIX = 3;
+
+    /*
+     * The queries of our busiest screens are prepared once for each layout of the reservation
+     * documents, only the date is bound on each call. They are the equivalent of:
+     *
+     * Query.query(Criteria.where("price").gt(0).and("date").is(date))
+     *         .with(Sort.by(Sort.Order.desc("price")))
+     *         .limit(10);
+     *
+     * Aggregation.newAggregation(
+     *         Aggregation.match(Criteria.where("date").is(date)),
+     *         Aggregation.group("date").addToSet("booker").as("bookers"),
+     *         Aggregation.addFields().addField("date").withValue(date).build()
+     * );
+     */
+    static final Map<ReservationFields, PreparedQuery<ReservationEntity>> MOST_EXPENSIVE = ReservationFields.each(fields -> PreparedQuery
+            .of(ReservationEntity.class, new Document(fields.price(), new Document("$gt", 0)).append(fields.date(), PreparedDocument.parameter(0)))
+            .sort(new Document(fields.price(), -1))
+            .limit(10));
+
+    static final Map<ReservationFields, PreparedAggregation<ReservationCheckin>> CHECKIN_LIST = ReservationFields.each(fields -> new PreparedAggregation<>(ReservationCheckin.class,
+            new Document("$match", new Document(fields.date(), PreparedDocument.parameter(0))),
+            new Document("$group", new Document("_id", "$" + fields.date()).append("bookers", new Document("$addToSet", "$" + fields.booker()))),
+            new Document("$addFields", new Document("date", PreparedDocument.parameter(0)))
+    ));
+
     private final MongoTemplate mongo;
+    /**
+     * For reports, which may read slightly outdated data from secondaries. Bookings, point reads and
+     * writes use {@link #mongo}, which always goes to the primary.
+     */
+    private final AnalyticsMongoTemplate analytics;
     private final MongoDbIdProvider id;
+    private final ReservationCache cache;
+    private final List<ReservationListener> listeners;
+    private final ReservationArchive archive;
+    private final ReservationAvailability availability;
+    private final ReservationCheckinView checkinView;
+    /**
+     * While a schema migration runs, the queries below are run in the previous layout as well, since
+     * some of the reservations are still stored in it.
+     */
+    private final PreviousLayoutMongoTemplate previous;
+
+    public ReservationRepository(MongoTemplate mongo, MongoDbIdProvider id) {
+        this(mongo, new AnalyticsMongoTemplate(mongo.getMongoDatabaseFactory(), mongo.getConverter(), ReadPreference.primary()), id,
+                ReservationCache.disabled(), List.of(), ReservationArchive.disabled(), ReservationAvailability.disabled(),
+                ReservationCheckinView.disabled(), new PreviousLayoutMongoTemplate(mongo.getMongoDatabaseFactory(), mongo.getConverter(), false));
+    }
 
+    /**
+     * Finds the reservation in the reservation collection, or in the archive when it has been moved
+     * there.
+     */
     public Optional<ReservationEntity> find(UUID id) {
-        return Optional.ofNullable(mongo.findById(id, ReservationEntity.class));
+        return cache.get(id, key -> Optional.ofNullable(mongo.findOne(ReservationBudget.apply(Query.query(Criteria.where("_id").is(key))), ReservationEntity.class))
+                .or(() -> archive.find(key))
+                .orElse(null));
     }
 
+    /**
+     * Loads every reservation into memory at once, which is fine for small collections only. Above
+     * {@link #FIND_ALL_LIMIT} reservations we refuse, use {@link #stream()} or one of the keyset
+     * paginated methods instead.
+     */
     public List<ReservationEntity> findAll() {
-        return mongo.findAll(ReservationEntity.class);
+        var count = mongo.estimatedCount(ReservationEntity.class);
+        if (count > FIND_ALL_LIMIT) {
+            throw new IllegalStateException("Refusing to load " + count + " reservations into memory, stream them instead");
+        }
+        return mongo.find(ReservationBudget.apply(new Query()), ReservationEntity.class);
+    }
+
+    public Stream<ReservationEntity> stream() {
+        return stream(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Streams all reservations using a cursor, fetching batchSize documents per round trip. Memory
+     * use does not depend on the size of the collection. The stream holds an open cursor and must
+     * be closed, preferably using try-with-resources.
+     */
+    public Stream<ReservationEntity> stream(int batchSize) {
+        var query = new Query().cursorBatchSize(batchSize);
+        return mongo.stream(query, ReservationEntity.class);
+    }
+
+    /**
+     * Returns the next page of reservations in order of id, starting after the given id, or from
+     * the start when it is null. Unlike skip/limit, every page is a single index seek.
+     */
+    public List<ReservationEntity> findPageById(@Nullable UUID after, int pageSize) {
+        var query = new Query();
+        query.limit(pageSize);
+        query.with(Sort.by(Sort.Order.asc("_id")));
+        if (after != null) {
+            query.addCriteria(Criteria.where("_id").gt(after));
+        }
+        return mongo.find(ReservationBudget.apply(query), ReservationEntity.class);
+    }
+
+    /**
+     * Returns the next page of reservations in order of date and id, starting after the given
+     * reservation, or from the start when it is null.
+     */
+    public List<ReservationEntity> findPageByDate(@Nullable ReservationEntity after, int pageSize) {
+        var date = after == null ? null : after.date();
+        var id = after == null ? null : after.id();
+        return bothLayouts(
+                template -> template.find(ReservationBudget.apply(pageByDate(date, id, pageSize)), ReservationEntity.class),
+                ReservationEntity::id, byDateAndId(ReservationEntity::date, ReservationEntity::id, true), pageSize);
+    }
+
+    /**
+     * Same as {@link #findPageByDate}, but only returns the fields shown in our list screens. All of
+     * these fields are in the index, so the query is answered from the index alone.
+     */
+    public List<ReservationSummary> findSummaryPageByDate(@Nullable ReservationSummary after, int pageSize) {
+        var date = after == null ? null : after.date();
+        var id = after == null ? null : after.id();
+        return bothLayouts(
+                template -> findSummaries(template, pageByDate(date, id, pageSize).withHint(index(template, ReservationIndexes.DATE_ID))),
+                ReservationSummary::id, byDateAndId(ReservationSummary::date, ReservationSummary::id, true), pageSize);
+    }
+
+    /**
+     * Searches reservations by the start of the booker's name, ignoring case, ordered by date. Pass
+     * the token of the previous page to continue from there, or null to start at the beginning. A
+     * prefix of at least {@link #SELECTIVE_PREFIX} characters seeks to the range of bookers starting
+     * with it, and sorts the reservations found there in memory. A shorter prefix matches so many
+     * bookers that each page instead seeks to its position in the date order and walks the index from
+     * there, matching the lowercase booker in the index itself, so nothing is sorted in memory.
+     */
+    public ReservationPage search(@Nullable String booker, boolean ascending, int pageSize, @Nullable String token) {
+        var cursor = token == null ? null : ReservationCursor.decode(token);
+        if (cursor != null && cursor.ascending() != ascending) {
+            throw new IllegalArgumentException("Token was issued for the opposite sort order");
+        }
+        var found = bothLayouts(template -> template.find(ReservationBudget.apply(search(template, booker, ascending, pageSize, cursor)), ReservationEntity.class),
+                ReservationEntity::id, byDateAndId(ReservationEntity::date, ReservationEntity::id, ascending), pageSize + 1);
+        if (found.size() <= pageSize) {
+            return new ReservationPage(found, null);
+        }
+        var page = found.subList(0, pageSize);
+        var last = page.get(pageSize - 1);
+        return new ReservationPage(page, new ReservationCursor(last.date(), last.id(), ascending).encode());
     }
 
     public ReservationEntity save(ReservationEntry entry) {
-        return mongo.save(createEntity(entry));
+        return save(createEntity(entry));
+    }
+
+    /**
+     * Saves the reservation only when its chalet is available on its date. {@link ReservationAvailability}
+     * is checked first, which refuses most double bookings without a round trip, after which MongoDB
+     * decides by claiming the chalet-day for the reservation. Returns empty when the chalet has already
+     * been booked, also when that happened on another node.
+     */
+    public Optional<ReservationEntity> book(ReservationEntry entry) {
+        if (!availability.reserve(entry.chalet(), entry.date())) {
+            return Optional.empty();
+        }
+        var reservation = createEntity(entry);
+        try {
+            if (!availability.claim(reservation)) {
+                availability.cancel(entry.chalet(), entry.date());
+                return Optional.empty();
+            }
+            return Optional.of(save(reservation));
+        } catch (RuntimeException e) {
+            availability.unclaim(reservation.id(), entry.chalet(), entry.date());
+            availability.cancel(entry.chalet(), entry.date());
+            throw e;
+        }
+    }
+
+    public ReservationBulkResult saveAll(Stream<ReservationEntry> entries) {
+        return saveAll(entries, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Partner feeds deliver hundreds of thousands of reservations each night. Saving them one by one
+     * costs a round trip per reservation, so instead we insert them in unordered batches. A batch that
+     * fails (partially) is reported in the result, but does not stop the remaining batches.
+     */
+    public ReservationBulkResult saveAll(Stream<ReservationEntry> entries, int batchSize) {
+        return saveAll(entries.iterator(), batchSize);
+    }
+
+    public ReservationBulkResult saveAll(Iterator<ReservationEntry> entries, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, but was " + batchSize);
+        }
+
+        var result = new ReservationBulkResult.Builder();
+        var batch = new ArrayList<ReservationEntity>(batchSize);
+        while (entries.hasNext()) {
+            batch.add(createEntity(entries.next()));
+            if (batch.size() == batchSize) {
+                insertBatch(batch, result);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            insertBatch(batch, result);
+        }
+        return result.build();
     }
 
     public void delete(UUID id) {
-        mongo.remove(id);
+        var current = mongo.findAndRemove(Query.query(Criteria.where("_id").is(id)), ReservationEntity.class);
+        // A reservation that is being moved may already have a copy in the archive
+        var archived = current == null || archive.covers(current.date()) ? archive.remove(id) : null;
+        var removed = current != null ? current : archived;
+        cache.evict(id);
+        if (removed != null) {
+            listeners.forEach(listener -> listener.deleted(removed));
+        }
     }
 
     /*
@@ -63,12 +290,29 @@ public class ReservationRepository {
      * help us fetch this data sorted by price descending and excluding free stays.
      */
     public List<ReservationEntity> queryExample_mostExpensive(LocalDate date) {
-        var query = new Query();
-        query.limit(10);
-        query.with(Sort.by(Sort.Order.desc("price")));
-        query.addCriteria(Criteria.where("price").gt(0));
-        query.addCriteria(Criteria.where("date").is(date));
-        return mongo.find(query, ReservationEntity.class);
+        var collection = mongo.getCollectionName(ReservationEntity.class);
+        var result = bothLayouts(template -> MOST_EXPENSIVE.get(ReservationFields.of(template.getConverter())).find(template, collection, date),
+                ReservationEntity::id, byPrice(ReservationEntity::price), 10);
+        if (!archive.covers(date)) {
+            return result;
+        }
+        var prepared = MOST_EXPENSIVE.get(ReservationFields.of(mongo.getConverter()));
+        return mostExpensive(result, prepared.find(mongo, ReservationArchive.collection(date.getYear()), date), ReservationEntity::id, ReservationEntity::price);
+    }
+
+    /**
+     * Same as {@link #queryExample_mostExpensive}, but only returns the fields shown in our list
+     * screens, answered from the index alone.
+     */
+    public List<ReservationSummary> querySummary_mostExpensive(LocalDate date) {
+        var result = bothLayouts(template -> findSummaries(template, mostExpensive(date).withHint(index(template, ReservationIndexes.DATE_PRICE))),
+                ReservationSummary::id, byPrice(ReservationSummary::price), 10);
+        if (!archive.covers(date)) {
+            return result;
+        }
+        var archived = mostExpensive(date).withHint(ReservationIndexes.DATE_PRICE);
+        archived.fields().include(ReservationSummary.FIELDS);
+        return mostExpensive(result, archive.find(ReservationBudget.apply(archived), ReservationSummary.class, date), ReservationSummary::id, ReservationSummary::price);
     }
 
     /**
@@ -106,10 +350,11 @@ public class ReservationRepository {
         var query = new Query();
         query.addCriteria(Criteria.where("_id").is(id));
 
-        var update = new Update();
-        update.set("booker", name);
-
-        mongo.updateFirst(query, update, ReservationEntity.class);
+        if (!previous.updateUnmigrated(id, fields -> bookerCorrection(fields, name))) {
+            mongo.updateFirst(query, bookerCorrection(ReservationFields.of(mongo.getConverter()), name), ReservationEntity.class);
+        }
+        cache.evict(id);
+        listeners.forEach(listener -> listener.bookerCorrected(id, name));
     }
 
     /**
@@ -145,15 +390,26 @@ public class ReservationRepository {
      * At the start of the day, we print a list of all the bookers that will check in for that day. Therefore,
      * we would like to have a pipeline to generate a list of the names of all the bookers we can expect to
      * check in on the specified date.
+     * <p>
+     * The list is read from the {@link ReservationCheckinView}, which follows the change stream. Dates it
+     * has no complete list for are aggregated from the reservations instead, on {@link #analytics},
+     * since a printed list may well be a few seconds behind.
      */
     public ReservationCheckin pipelineExample_checkinList(LocalDate date) {
-        var pipeline = Aggregation.newAggregation(
-                Aggregation.match(Criteria.where("date").is(date)),
-                Aggregation.group("date").addToSet("booker").as("bookers"),
-                Aggregation.addFields().addField("date").withValue(date).build()
-        );
+        var view = checkinView.find(date);
+        if (view.isPresent()) {
+            return view.get();
+        }
 
-        return mongo.aggregate(pipeline, ReservationEntity.class, ReservationCheckin.class).getUniqueMappedResult();
+        var fields = ReservationFields.of(mongo.getConverter());
+        var collection = mongo.getCollectionName(ReservationEntity.class);
+        // Like bothLayouts, the previous layout is aggregated first
+        var unmigrated = previous.migrating() ? checkinList(fields.other(), collection, date) : null;
+        var result = combine(date, checkinList(fields, collection, date), unmigrated);
+        if (!archive.covers(date)) {
+            return result;
+        }
+        return combine(date, result, checkinList(fields, ReservationArchive.collection(date.getYear()), date));
     }
 
     /**
@@ -161,6 +417,7 @@ public class ReservationRepository {
      * create a pipeline which selects all the reservations from the specified month in the specified year,
      * and calculate our total income for that month. We should store this document in another collection
      * and return it. If we create a view of the same month twice, we should overwrite the existing view.
+     * This report may run on {@link #analytics}, since $merge and $out always write to the primary.
      */
     public Optional<ReservationIncomeSummary> pipelineExercise_incomeGenerated(Year year, Month month) {
         throw new NotImplementedException();
@@ -171,15 +428,206 @@ public class ReservationRepository {
      * since they have to process each insurance claim individually. Create a pipeline which retrieves
      * all the chalets that have damages, and create individual reports for each damage in the list of
      * damages. Only include reservations with damages at the specified date. Include only those that
-     * had insurance.
+     * had insurance. Run this report on {@link #analytics}, such that it doesn't compete with bookings.
      */
     public List<ReservationInsuranceClaim> pipelineExercise_insuranceClaims(List<String> chalets, LocalDate date) {
         throw new NotImplementedException();
     }
 
+    private Query pageByDate(@Nullable LocalDate date, @Nullable UUID id, int pageSize) {
+        var query = new Query();
+        query.limit(pageSize);
+        query.with(Sort.by(Sort.Order.asc("date"), Sort.Order.asc("_id")));
+        if (date != null) {
+            // The range on date bounds the index scan, the $or only filters out the reservations on
+            // the same date up to the given id.
+            query.addCriteria(Criteria.where("date").gte(date).orOperator(
+                    Criteria.where("date").gt(date),
+                    Criteria.where("_id").gt(id)
+            ));
+        }
+        return query;
+    }
+
+    static Update bookerCorrection(ReservationFields fields, String name) {
+        var update = new Update();
+        update.set("booker", name);
+        update.set(fields.bookerLowercase(), ReservationEntity.lowercase(name));
+        return update;
+    }
+
+    static Query mostExpensive(LocalDate date) {
+        var query = new Query();
+        query.limit(10);
+        query.with(Sort.by(Sort.Order.desc("price")));
+        query.addCriteria(Criteria.where("price").gt(0));
+        query.addCriteria(Criteria.where("date").is(date));
+        return query;
+    }
+
+    private Query search(MongoTemplate template, @Nullable String booker, boolean ascending, int pageSize, @Nullable ReservationCursor cursor) {
+        var direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        var query = new Query();
+        query.limit(pageSize + 1);
+        query.with(Sort.by(new Sort.Order(direction, "date"), new Sort.Order(direction, "_id")));
+        if (booker != null && !booker.isEmpty()) {
+            var prefix = ReservationEntity.lowercase(booker);
+            var bookers = Criteria.where(ReservationFields.of(template.getConverter()).bookerLowercase()).gte(prefix);
+            var end = prefixEnd(prefix);
+            if (end != null) {
+                bookers.lt(end);
+            }
+            query.addCriteria(bookers);
+            query.withHint(index(template, prefix.length() >= SELECTIVE_PREFIX ? ReservationIndexes.BOOKER_SEARCH : ReservationIndexes.SEARCH));
+        }
+        if (cursor != null) {
+            query.addCriteria(ascending
+                    ? Criteria.where("date").gte(cursor.date()).orOperator(Criteria.where("date").gt(cursor.date()), Criteria.where("_id").gt(cursor.id()))
+                    : Criteria.where("date").lte(cursor.date()).orOperator(Criteria.where("date").lt(cursor.date()), Criteria.where("_id").lt(cursor.id())));
+        }
+        return query;
+    }
+
+    /**
+     * The name of the index to hint in the layout of the given template.
+     */
+    private String index(MongoTemplate template, String index) {
+        return template == previous ? ReservationIndexes.named(index, ReservationFields.of(previous.getConverter())) : index;
+    }
+
+    /**
+     * Runs the query on the reservation collection, and while a schema migration runs, also in the
+     * previous layout, merging both results in the order of the query. The previous layout is queried
+     * first: the migration only converts reservations to the configured layout, so one converted in
+     * between is still found by the second query. One found by both is kept once.
+     */
+    private <T> List<T> bothLayouts(Function<MongoTemplate, List<T>> query, Function<T, UUID> id, Comparator<T> order, int limit) {
+        if (!previous.migrating()) {
+            return query.apply(mongo);
+        }
+        var unmigrated = query.apply(previous);
+        return merge(query.apply(mongo), unmigrated, id, order, limit);
+    }
+
+    private static <T> Comparator<T> byPrice(Function<T, Long> price) {
+        return Comparator.comparing(price).reversed();
+    }
+
+    /**
+     * Orders by date and id the way MongoDB does, which compares UUIDs as unsigned bytes.
+     */
+    private static <T> Comparator<T> byDateAndId(Function<T, LocalDate> date, Function<T, UUID> id, boolean ascending) {
+        Comparator<UUID> bytes = (a, b) -> a.getMostSignificantBits() != b.getMostSignificantBits()
+                ? Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits())
+                : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+        var order = Comparator.comparing(date).thenComparing(id, bytes);
+        return ascending ? order : order.reversed();
+    }
+
+    /**
+     * The first string after all strings starting with the prefix, in the order MongoDB compares
+     * strings, or null when there is none.
+     */
+    @Nullable
+    private static String prefixEnd(String prefix) {
+        var codePoints = prefix.codePoints().toArray();
+        for (int i = codePoints.length - 1; i >= 0; i--) {
+            if (codePoints[i] < Character.MAX_CODE_POINT) {
+                codePoints[i] = codePoints[i] == Character.MIN_SURROGATE - 1 ? Character.MAX_SURROGATE + 1 : codePoints[i] + 1;
+                return new String(codePoints, 0, i + 1);
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private ReservationCheckin checkinList(ReservationFields fields, String collection, LocalDate date) {
+        var result = CHECKIN_LIST.get(fields).aggregate(analytics, collection, date);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Nullable
+    private static ReservationCheckin combine(LocalDate date, @Nullable ReservationCheckin first, @Nullable ReservationCheckin second) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+        var bookers = Stream.concat(first.bookers().stream(), second.bookers().stream()).distinct().toList();
+        return new ReservationCheckin(date, bookers);
+    }
+
+    /**
+     * The ten most expensive of both lists, for queries combining the reservation collection with
+     * the archive. A reservation that is being moved can be in both, the current one is kept.
+     */
+    private static <T> List<T> mostExpensive(List<T> current, List<T> archived, Function<T, UUID> id, Function<T, Long> price) {
+        return merge(current, archived, id, byPrice(price), 10);
+    }
+
+    /**
+     * The first results of both lists in the given order, keeping the reservations of the first list
+     * when both have them.
+     */
+    private static <T> List<T> merge(List<T> first, List<T> second, Function<T, UUID> id, Comparator<T> order, int limit) {
+        var merged = new LinkedHashMap<UUID, T>();
+        first.forEach(reservation -> merged.put(id.apply(reservation), reservation));
+        second.forEach(reservation -> merged.putIfAbsent(id.apply(reservation), reservation));
+        return merged.values().stream()
+                .sorted(order)
+                .limit(limit)
+                .toList();
+    }
+
+    private static List<ReservationSummary> findSummaries(MongoTemplate template, Query query) {
+        query.fields().include(ReservationSummary.FIELDS);
+        return template.query(ReservationEntity.class)
+                .as(ReservationSummary.class)
+                .matching(ReservationBudget.apply(query))
+                .all();
+    }
+
+    private void insertBatch(List<ReservationEntity> batch, ReservationBulkResult.Builder result) {
+        try {
+            var written = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, ReservationEntity.class)
+                    .insert(batch)
+                    .execute();
+            result.succeeded(written.getInsertedCount());
+            notifySaved(batch);
+        } catch (BulkOperationException e) {
+            var errors = e.getErrors().stream()
+                    .map(error -> "document " + error.getIndex() + ": " + error.getMessage())
+                    .toList();
+            result.failed(batch.size(), e.getResult().getInsertedCount(), errors);
+
+            var failed = e.getErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+            notifySaved(IntStream.range(0, batch.size())
+                    .filter(index -> !failed.contains(index))
+                    .mapToObj(batch::get)
+                    .toList());
+        } catch (DataAccessException e) {
+            result.failed(batch.size(), 0, List.of(String.valueOf(e.getMessage())));
+        }
+    }
+
+    private void notifySaved(List<ReservationEntity> saved) {
+        if (!saved.isEmpty()) {
+            listeners.forEach(listener -> listener.saved(saved));
+        }
+    }
+
+    private ReservationEntity save(ReservationEntity reservation) {
+        var saved = mongo.save(reservation);
+        cache.put(saved);
+        listeners.forEach(listener -> listener.saved(List.of(saved)));
+        return saved;
+    }
+
     private ReservationEntity createEntity(ReservationEntry entry) {
+        return createEntity(id.provide(), entry);
+    }
+
+    static ReservationEntity createEntity(UUID id, ReservationEntry entry) {
         return ReservationEntity.builder()
-                .id(id.provide())
+                .id(id)
                 .price(entry.price())
                 .date(entry.date())
                 .chalet(entry.chalet())
@@ -0,0 +1,58 @@
+package jdriven.training.mongodb.persistence;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every public {@link ReservationRepository} method as reservation.repository, tagged by method
+ * and outcome. It runs before the {@link ReservationConcurrencyLimiter}, so the time spent waiting
+ * for a permit is included. Streaming methods are timed until the stream is returned.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(prefix = "mongodb.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ReservationRepositoryMetrics {
+
+	private final MeterRegistry registry;
+	private final Map<String, Timer> successes = new ConcurrentHashMap<>();
+	private final Map<String, Timer> failures = new ConcurrentHashMap<>();
+
+	public ReservationRepositoryMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Around("execution(public * jdriven.training.mongodb.persistence.ReservationRepository.*(..))")
+	public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+		var method = joinPoint.getSignature().getName();
+		var start = System.nanoTime();
+		try {
+			var result = joinPoint.proceed();
+			timer(successes, method, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			return result;
+		} catch (Throwable e) {
+			timer(failures, method, "failure").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			throw e;
+		}
+	}
+
+	private Timer timer(Map<String, Timer> timers, String method, String outcome) {
+		return timers.computeIfAbsent(method, key -> Timer.builder("reservation.repository")
+				.description("Time spent in ReservationRepository methods")
+				.tag("method", method)
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(registry));
+	}
+}
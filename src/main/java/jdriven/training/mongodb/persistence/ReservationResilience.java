@@ -0,0 +1,383 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jdriven.training.mongodb.config.MongoDbProperties;
+import jdriven.training.mongodb.config.VirtualThreads;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protects {@link ReservationRepository} callers against a slow or failing MongoDB node:
+ * <ul>
+ *     <li>Every method gets a latency budget, which its queries pass on as maxTimeMS and its writes
+ *     as wtimeout, see {@link ReservationBudget}.</li>
+ *     <li>Reads that take longer than the configured percentile of their recent latencies are sent
+ *     a second time, and the first result is used. The caller runs the first attempt itself, only the
+ *     second runs on the bounded hedge executor, and the attempt that loses is interrupted. Both
+ *     attempts share the same budget. Hedging is off unless enabled.</li>
+ *     <li>When too many calls fail on MongoDB, calls are rejected for a while, see
+ *     {@link ReservationCircuitBreaker}. Failures of the caller, such as invalid arguments, don't count,
+ *     and neither do calls rejected by the breaker itself or by the limiter.</li>
+ * </ul>
+ * It runs within {@link ReservationRepositoryMetrics} and before the {@link ReservationConcurrencyLimiter},
+ * so a hedged attempt needs a permit of its own. Streaming methods are not hedged, and their cursors
+ * are not limited by the budget.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConditionalOnProperty(prefix = "mongodb.resilience", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ReservationResilience {
+
+	private static final int LATENCY_WINDOW = 512;
+	private static final int RECOMPUTE_EVERY = 64;
+
+	private final MongoDbProperties.Budgets budgets;
+	private final MongoDbProperties.Hedging hedging;
+	private final ReservationCircuitBreaker breaker;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService timer;
+	private final Semaphore hedges;
+	private final MeterRegistry registry;
+	private final Map<String, Latencies> latencies = new ConcurrentHashMap<>();
+
+	private final Counter rejected;
+
+	public ReservationResilience(MongoDbProperties properties, MeterRegistry registry) {
+		var resilience = properties.resilience();
+		this.budgets = resilience.budgets();
+		this.hedging = resilience.hedging();
+		this.breaker = new ReservationCircuitBreaker(resilience.circuitBreaker(), System::nanoTime);
+		this.hedges = new Semaphore(hedging.maxConcurrent());
+		this.executor = properties.execution().virtualThreads() && VirtualThreads.available()
+				? VirtualThreads.newExecutor()
+				: new ThreadPoolExecutor(0, hedging.maxConcurrent(), 1, TimeUnit.MINUTES, new SynchronousQueue<>(), runnable -> {
+					var thread = new Thread(runnable, "reservation-hedge");
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			var thread = new Thread(runnable, "reservation-hedge-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.registry = registry;
+		this.rejected = Counter.builder("reservation.resilience.rejected")
+				.description("Repository calls rejected by the open circuit breaker")
+				.register(registry);
+		Gauge.builder("reservation.resilience.circuit.state", breaker, circuit -> circuit.state().ordinal())
+				.description("State of the circuit breaker, 0 closed, 1 half-open and 2 open")
+				.register(registry);
+	}
+
+	@PreDestroy
+	public void close() {
+		timer.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	@Around("execution(public * jdriven.training.mongodb.persistence.ReservationRepository.*(..))")
+	public Object protect(ProceedingJoinPoint joinPoint) throws Throwable {
+		var method = joinPoint.getSignature().getName();
+		if (!breaker.tryAcquire()) {
+			rejected.increment();
+			throw new ReservationRejectedException("Circuit breaker is open, rejecting " + method);
+		}
+
+		var deadline = System.nanoTime() + budget(method).toNanos();
+		try {
+			var result = hedged(method) ? hedge(joinPoint, method, deadline) : attempt(joinPoint, method, deadline);
+			breaker.record(false);
+			return result;
+		} catch (Throwable e) {
+			breaker.record(failedOnMongo(e));
+			if (timedOut(e)) {
+				counter("reservation.resilience.timeouts", "Repository calls exceeding their latency budget", method).increment();
+			}
+			throw e;
+		}
+	}
+
+	private Duration budget(String method) {
+		var configured = budgets.methods().get(method);
+		if (configured != null) {
+			return configured;
+		}
+		return switch (ReservationConcurrencyLimiter.OperationType.of(method)) {
+			case READ -> budgets.read();
+			case WRITE -> budgets.write();
+			case AGGREGATION -> budgets.aggregation();
+		};
+	}
+
+	/**
+	 * Idempotent reads returning their results at once. Loading everything is not worth doing twice.
+	 */
+	private boolean hedged(String method) {
+		return hedging.enabled()
+				&& ReservationConcurrencyLimiter.OperationType.of(method) == ReservationConcurrencyLimiter.OperationType.READ
+				&& !method.startsWith("stream")
+				&& !method.equals("findAll");
+	}
+
+	private Object attempt(ProceedingJoinPoint joinPoint, String method, long deadline) throws Throwable {
+		var previous = ReservationBudget.enter(deadline);
+		var start = System.nanoTime();
+		try {
+			var result = joinPoint.proceed();
+			latencies(method).record(System.nanoTime() - start);
+			return result;
+		} finally {
+			ReservationBudget.exit(previous);
+		}
+	}
+
+	/**
+	 * Runs the read on the calling thread, and starts a second attempt on the hedge executor when it
+	 * has not completed within the hedge delay. The first attempt to succeed wins and interrupts the
+	 * other, the call only fails when all attempts fail.
+	 */
+	private Object hedge(ProceedingJoinPoint joinPoint, String method, long deadline) throws Throwable {
+		var delay = latencies(method).hedgeDelay();
+		if (delay < 0) {
+			return attempt(joinPoint, method, deadline);
+		}
+
+		var hedge = new Hedge(joinPoint, method, deadline);
+		hedge.trigger = timer.schedule(hedge::start, delay, TimeUnit.NANOSECONDS);
+		Object value = null;
+		Throwable failure = null;
+		try {
+			value = attempt(joinPoint, method, deadline);
+		} catch (Throwable e) {
+			failure = e;
+		}
+
+		var secondPending = hedge.callerFinished();
+		if (failure == null && hedge.result.complete(value)) {
+			hedge.cancelSecond();
+			return value;
+		}
+		if (failure != null && !hedge.result.isDone() && !secondPending) {
+			throw failure;
+		}
+		return await(hedge.result);
+	}
+
+	private static Object await(CompletableFuture<Object> result) throws Throwable {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new QueryTimeoutException("Interrupted while waiting for MongoDB", e);
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * A hedged read, of which the caller runs the first attempt. The second attempt is started by the
+	 * timer, unless the first has completed by then, the budget has run out, or too many second
+	 * attempts are running already.
+	 */
+	private final class Hedge {
+
+		private final ProceedingJoinPoint joinPoint;
+		private final String method;
+		private final long deadline;
+		private final Thread caller = Thread.currentThread();
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+		private volatile ScheduledFuture<?> trigger;
+
+		// Guarded by this
+		private boolean callerAttempting = true;
+		private boolean callerInterrupted;
+		private Future<?> second;
+		private boolean secondFailed;
+
+		private Hedge(ProceedingJoinPoint joinPoint, String method, long deadline) {
+			this.joinPoint = joinPoint;
+			this.method = method;
+			this.deadline = deadline;
+		}
+
+		private synchronized void start() {
+			if (!callerAttempting || System.nanoTime() >= deadline || !hedges.tryAcquire()) {
+				return;
+			}
+			try {
+				second = executor.submit(this::attemptSecond);
+				counter("reservation.resilience.hedges", "Reads sent a second time", method).increment();
+			} catch (RejectedExecutionException e) {
+				hedges.release();
+			}
+		}
+
+		private void attemptSecond() {
+			try {
+				var value = attempt(joinPoint, method, deadline);
+				if (result.complete(value)) {
+					counter("reservation.resilience.hedges.won", "Second attempts of reads that completed first", method).increment();
+					interruptCaller();
+				}
+			} catch (Throwable e) {
+				secondFailed(e);
+			} finally {
+				hedges.release();
+			}
+		}
+
+		private synchronized void interruptCaller() {
+			if (callerAttempting) {
+				callerInterrupted = true;
+				caller.interrupt();
+			}
+		}
+
+		private synchronized void secondFailed(Throwable e) {
+			secondFailed = true;
+			if (!callerAttempting) {
+				result.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Called once the first attempt returned or failed. Clears an interrupt by the second attempt,
+		 * and returns whether the second attempt is still running.
+		 */
+		private synchronized boolean callerFinished() {
+			callerAttempting = false;
+			if (trigger != null) {
+				trigger.cancel(false);
+			}
+			if (callerInterrupted) {
+				Thread.interrupted();
+			}
+			return second != null && !secondFailed && !result.isDone();
+		}
+
+		private synchronized void cancelSecond() {
+			if (second != null) {
+				second.cancel(true);
+			}
+		}
+	}
+
+	private Latencies latencies(String method) {
+		return latencies.computeIfAbsent(method, key -> {
+			var created = new Latencies(hedging);
+			Gauge.builder("reservation.resilience.hedge.delay", created, Latencies::hedgeDelayMillis)
+					.description("Time after which reads are sent a second time, in milliseconds")
+					.tag("method", method)
+					.register(registry);
+			return created;
+		});
+	}
+
+	private Counter counter(String name, String description, String method) {
+		return Counter.builder(name).description(description).tag("method", method).register(registry);
+	}
+
+	/**
+	 * Whether MongoDB, or our connection to it, failed the call, as opposed to the call being invalid
+	 * or rejected before reaching MongoDB.
+	 */
+	static boolean failedOnMongo(Throwable e) {
+		for (var cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ReservationRejectedException) {
+				return false;
+			}
+			if (cause instanceof DataAccessResourceFailureException
+					|| cause instanceof TransientDataAccessException
+					|| cause instanceof QueryTimeoutException
+					|| cause instanceof MongoSocketException
+					|| cause instanceof MongoTimeoutException
+					|| cause instanceof MongoExecutionTimeoutException
+					|| cause instanceof MongoNotPrimaryException
+					|| cause instanceof MongoNodeIsRecoveringException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean timedOut(Throwable e) {
+		for (var cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof MongoExecutionTimeoutException || cause instanceof QueryTimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Recent latencies of a method, of which the hedge percentile is recomputed every so many calls.
+	 */
+	private static final class Latencies {
+
+		private final MongoDbProperties.Hedging hedging;
+		private final long[] samples = new long[LATENCY_WINDOW];
+		private int recorded;
+		private long percentile = -1;
+
+		private Latencies(MongoDbProperties.Hedging hedging) {
+			this.hedging = hedging;
+		}
+
+		synchronized void record(long nanos) {
+			samples[recorded % LATENCY_WINDOW] = nanos;
+			recorded = recorded == Integer.MAX_VALUE ? LATENCY_WINDOW : recorded + 1;
+			if (recorded >= hedging.minSamples() && (percentile < 0 || recorded % RECOMPUTE_EVERY == 0)) {
+				var sorted = Arrays.copyOf(samples, Math.min(recorded, LATENCY_WINDOW));
+				Arrays.sort(sorted);
+				var index = (int) Math.ceil(hedging.percentile() * sorted.length) - 1;
+				percentile = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+			}
+		}
+
+		/**
+		 * Nanoseconds after which to hedge, or -1 while too few calls have been observed.
+		 */
+		synchronized long hedgeDelay() {
+			return percentile < 0 ? -1 : Math.max(percentile, hedging.minDelay().toNanos());
+		}
+
+		double hedgeDelayMillis() {
+			var delay = hedgeDelay();
+			return delay < 0 ? Double.NaN : delay / 1_000_000.0;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package jdriven.training.mongodb.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jdriven.training.mongodb.config.MongoDbProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+
+/**
+ * Converts the stored reservations to the layout configured by mongodb.schema.compact, see
+ * {@link ReservationFields}. Fields are renamed in place, a range of ids at a time with a pause in
+ * between batches, which leaves room for regular traffic and lets replication keep up. Renaming the
+ * fields of a reservation that already has the configured layout does nothing, so a migration that
+ * was interrupted is simply started again. Switching back works the same way. Reservations stored
+ * before the lowercase booker of {@link ReservationSearchField} existed are given one as well.
+ * <p>
+ * Switch layouts with mongodb.schema.migrating set on every node, and unset it once the migration
+ * has completed. Until then, {@link ReservationRepository} queries both layouts, and updates are
+ * applied in the layout the reservation is stored in, see {@link ReservationIndexes} for the indexes
+ * of both. Reports and rebuilds working on whole days, such as the views, the archive and the
+ * anniversary discount, only see the configured layout, so run them after the migration. The archive
+ * collections are migrated as well.
+ */
+@Slf4j
+@Component
+public class ReservationSchemaMigration implements ApplicationRunner {
+
+	private final MongoTemplate mongo;
+	private final MongoDbProperties.Schema settings;
+	private final Counter migrated;
+
+	public ReservationSchemaMigration(MongoTemplate mongo, MongoDbProperties properties, MeterRegistry registry) {
+		this.mongo = mongo;
+		this.settings = properties.schema();
+		this.migrated = Counter.builder("reservation.schema.migrated")
+				.description("Reservations converted to the configured layout")
+				.tag("layout", ReservationFields.of(mongo.getConverter()).toString())
+				.register(registry);
+	}
+
+	/**
+	 * Runs the migration at startup when mongodb.schema.migrate is set, for example together with the
+	 * batch-job profile.
+	 */
+	@Override
+	public void run(ApplicationArguments args) throws InterruptedException {
+		if (settings.migrate()) {
+			log.info("Migrated {} reservations to the {} layout", migrate(), ReservationFields.of(mongo.getConverter()));
+		}
+	}
+
+	/**
+	 * Migrates the reservation collection and the archive collections, and returns the number of
+	 * updates that changed a reservation.
+	 */
+	public long migrate() throws InterruptedException {
+		var target = ReservationFields.of(mongo.getConverter());
+		var source = target.compact() ? ReservationFields.VERBOSE : ReservationFields.COMPACT;
+		var renames = new Update();
+		source.names().forEach((property, name) -> renames.rename(name, target.name(property)));
+		var lowercase = AggregationUpdate.update()
+				.set(target.bookerLowercase()).toValue(StringOperators.valueOf(target.booker()).toLower());
+		var withoutLowercase = Criteria.where(target.bookerLowercase()).exists(false).and(target.booker()).exists(true);
+
+		var collections = new ArrayList<String>();
+		collections.add(mongo.getCollectionName(ReservationEntity.class));
+		mongo.getCollectionNames().stream()
+				.filter(name -> name.startsWith(ReservationArchive.COLLECTION_PREFIX))
+				.sorted()
+				.forEach(collections::add);
+
+		var total = 0L;
+		for (var collection : collections) {
+			if (collection.startsWith(ReservationArchive.COLLECTION_PREFIX)) {
+				ReservationIndexes.ensure(mongo.indexOps(collection, ReservationEntity.class), ReservationIndexes.ARCHIVE_DEFINITIONS, target);
+			}
+			total += migrate(collection, renames, lowercase, withoutLowercase);
+		}
+		return total;
+	}
+
+	/**
+	 * Walks the collection in order of id. The queries and updates are given the collection name only,
+	 * such that MongoTemplate leaves the field names as they are.
+	 */
+	private long migrate(String collection, Update renames, AggregationUpdate lowercase, Criteria withoutLowercase)
+			throws InterruptedException {
+		Object lastId = null;
+		var total = 0L;
+		while (true) {
+			var query = new Query().with(Sort.by("_id")).limit(settings.batchSize());
+			if (lastId != null) {
+				query.addCriteria(Criteria.where("_id").gt(lastId));
+			}
+			query.fields().include("_id");
+			var batch = mongo.find(query, Document.class, collection);
+			if (batch.isEmpty()) {
+				return total;
+			}
+
+			var first = batch.get(0).get("_id");
+			lastId = batch.get(batch.size() - 1).get("_id");
+			var range = Criteria.where("_id").gte(first).lte(lastId);
+			var modified = mongo.updateMulti(Query.query(range), renames, collection).getModifiedCount()
+					+ mongo.updateMulti(Query.query(new Criteria().andOperator(range, withoutLowercase)), lowercase, collection).getModifiedCount();
+			if (modified > 0) {
+				total += modified;
+				migrated.increment(modified);
+				Thread.sleep(settings.pause().toMillis());
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.config.MongoDbProperties;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds the lowercase booker used by {@link ReservationRepository#search} to every reservation
+ * written by MongoTemplate or ReactiveMongoTemplate, including bulk inserts. It is not a property of
+ * {@link ReservationEntity}, so it is never read back, and updates of the booker set it themselves.
+ */
+@Component
+public class ReservationSearchField extends AbstractMongoEventListener<ReservationEntity> {
+
+	private final ReservationFields fields;
+
+	public ReservationSearchField(MongoDbProperties properties) {
+		this.fields = ReservationFields.of(properties.schema().compact());
+	}
+
+	@Override
+	public void onBeforeSave(BeforeSaveEvent<ReservationEntity> event) {
+		var document = event.getDocument();
+		var booker = event.getSource().booker();
+		if (document != null && booker != null) {
+			document.put(fields.bookerLowercase(), ReservationEntity.lowercase(booker));
+		}
+	}
+}
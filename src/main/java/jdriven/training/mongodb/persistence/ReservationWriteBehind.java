@@ -0,0 +1,287 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.lang.Nullable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jdriven.training.mongodb.config.MongoDbProperties;
+import jdriven.training.mongodb.config.PreviousLayoutMongoTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * During the check-in rush, staff correct bookers, add guests and file damages in bursts, often for
+ * the same few reservations. When enabled, these updates are held back for a short while and merged
+ * per reservation: later $set values replace earlier ones and $push values are appended. All merged
+ * updates are then written as a single unordered bulk write.
+ * <p>
+ * Held back updates are not visible to readers yet, and are lost when the application stops without
+ * flushing. Callers which need to read their own writes should use {@link ReservationRepository}.
+ * Updates which fail are reported in the log and counted, they are not retried. While a schema
+ * migration runs, updates of reservations still stored in the previous layout are written one at a
+ * time, in that layout.
+ */
+@Slf4j
+@Component
+public class ReservationWriteBehind {
+
+	private final MongoTemplate mongo;
+	private final PreviousLayoutMongoTemplate previous;
+	private final ReservationCache cache;
+	private final List<ReservationListener> listeners;
+	private final MongoDbProperties.WriteBehind settings;
+	private final ScheduledExecutorService scheduler;
+
+	private final Counter operations;
+	private final Counter writes;
+	private final Counter failures;
+
+	private final Object lock = new Object();
+	private final Object flushLock = new Object();
+	private Map<UUID, PendingUpdate> pending = new LinkedHashMap<>();
+	private int pendingOperations;
+	@Nullable
+	private ScheduledFuture<?> scheduledFlush;
+	private volatile boolean closed;
+
+	public ReservationWriteBehind(MongoTemplate mongo, PreviousLayoutMongoTemplate previous, ReservationCache cache,
+								  List<ReservationListener> listeners, MongoDbProperties properties, MeterRegistry registry) {
+		this.mongo = mongo;
+		this.previous = previous;
+		this.cache = cache;
+		this.listeners = listeners;
+		this.settings = properties.writeBehind();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			var thread = new Thread(runnable, "reservation-write-behind");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.operations = Counter.builder("reservation.writebehind.operations")
+				.description("Updates submitted")
+				.register(registry);
+		this.writes = Counter.builder("reservation.writebehind.writes")
+				.description("Merged updates sent to MongoDB")
+				.register(registry);
+		this.failures = Counter.builder("reservation.writebehind.failures")
+				.description("Merged updates rejected by MongoDB")
+				.register(registry);
+		Gauge.builder("reservation.writebehind.coalescing.ratio", this, ReservationWriteBehind::coalescingRatio)
+				.description("Submitted updates per merged update sent to MongoDB")
+				.register(registry);
+		Gauge.builder("reservation.writebehind.pending", this, ReservationWriteBehind::pending)
+				.description("Updates waiting to be written")
+				.register(registry);
+	}
+
+	/**
+	 * See {@link ReservationRepository#updateExample_bookerCorrection}.
+	 */
+	public void correctBooker(UUID id, String name) {
+		submit(id, update -> !update.pushes.containsKey("booker"), update -> {
+			update.sets.put("booker", name);
+			update.sets.put("bookerLowercase", ReservationEntity.lowercase(name));
+			update.afterWrite.add(() -> listeners.forEach(listener -> listener.bookerCorrected(id, name)));
+		});
+	}
+
+	public void includeGuest(UUID id, String guest) {
+		push(id, "guests", guest);
+	}
+
+	public void fileDamage(UUID id, String damage) {
+		push(id, "damages", damage);
+	}
+
+	/**
+	 * Writes all pending updates now, and returns once they are written.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			List<PendingUpdate> batch;
+			synchronized (lock) {
+				batch = drain();
+			}
+			write(batch);
+		}
+	}
+
+	public int pending() {
+		synchronized (lock) {
+			return pendingOperations;
+		}
+	}
+
+	/**
+	 * Number of submitted updates per update written to MongoDB, since the application started.
+	 */
+	public double coalescingRatio() {
+		var written = writes.count();
+		return written == 0 ? 1.0 : operations.count() / written;
+	}
+
+	@PreDestroy
+	public void close() {
+		closed = true;
+		scheduler.shutdownNow();
+		if (settings.flushOnShutdown()) {
+			flush();
+		} else if (pending() > 0) {
+			log.warn("Discarding {} pending reservation updates on shutdown", pending());
+		}
+	}
+
+	private void push(UUID id, String field, Object value) {
+		submit(id, update -> !update.sets.containsKey(field), update ->
+				update.pushes.computeIfAbsent(field, key -> new ArrayList<>()).add(value));
+	}
+
+	private void submit(UUID id, Predicate<PendingUpdate> compatible, Consumer<PendingUpdate> change) {
+		operations.increment();
+		if (!settings.enabled() || closed) {
+			var update = new PendingUpdate(id);
+			change.accept(update);
+			write(List.of(update));
+			return;
+		}
+
+		boolean full;
+		while (true) {
+			synchronized (lock) {
+				var update = pending.get(id);
+				if (update == null || compatible.test(update)) {
+					change.accept(pending.computeIfAbsent(id, PendingUpdate::new));
+					pendingOperations++;
+					full = pendingOperations >= settings.maxPending();
+					if (!full && scheduledFlush == null) {
+						scheduledFlush = scheduler.schedule(this::scheduledFlush, settings.maxDelay().toMillis(), TimeUnit.MILLISECONDS);
+					}
+					break;
+				}
+			}
+			// Both operators on the same field can't be merged, write what we have before continuing
+			flush();
+		}
+		if (full) {
+			flush();
+		}
+	}
+
+	private List<PendingUpdate> drain() {
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		var batch = List.copyOf(pending.values());
+		pending = new LinkedHashMap<>();
+		pendingOperations = 0;
+		return batch;
+	}
+
+	private void scheduledFlush() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			log.error("Failed to write pending reservation updates", e);
+		}
+	}
+
+	private void write(List<PendingUpdate> batch) {
+		if (previous.migrating()) {
+			batch = batch.stream().filter(update -> !writeUnmigrated(update)).toList();
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		var fields = ReservationFields.of(mongo.getConverter());
+		var bulk = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, ReservationEntity.class);
+		batch.forEach(update -> bulk.updateOne(Query.query(Criteria.where("_id").is(update.id)), update.toUpdate(fields)));
+
+		Set<Integer> failed = Set.of();
+		try {
+			bulk.execute();
+		} catch (BulkOperationException e) {
+			failed = e.getErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+			log.warn("{} of {} reservation updates failed: {}", failed.size(), batch.size(), e.getErrors());
+		} catch (DataAccessException e) {
+			failed = IntStream.range(0, batch.size()).boxed().collect(Collectors.toSet());
+			log.warn("{} reservation updates failed", batch.size(), e);
+		}
+
+		writes.increment(batch.size());
+		failures.increment(failed.size());
+		for (int i = 0; i < batch.size(); i++) {
+			var update = batch.get(i);
+			cache.evict(update.id);
+			if (!failed.contains(i)) {
+				update.afterWrite.forEach(Runnable::run);
+			}
+		}
+	}
+
+	/**
+	 * Writes the update when its reservation is still stored in the previous layout, and returns
+	 * whether it was handled, which includes having failed.
+	 */
+	private boolean writeUnmigrated(PendingUpdate update) {
+		try {
+			if (!previous.updateUnmigrated(update.id, update::toUpdate)) {
+				return false;
+			}
+			update.afterWrite.forEach(Runnable::run);
+		} catch (DataAccessException e) {
+			failures.increment();
+			log.warn("Reservation update failed", e);
+		}
+		writes.increment();
+		cache.evict(update.id);
+		return true;
+	}
+
+	private static final class PendingUpdate {
+
+		private final UUID id;
+		private final Map<String, Object> sets = new LinkedHashMap<>();
+		private final Map<String, List<Object>> pushes = new LinkedHashMap<>();
+		private final List<Runnable> afterWrite = new ArrayList<>();
+
+		private PendingUpdate(UUID id) {
+			this.id = id;
+		}
+
+		/**
+		 * The update with the names of the given layout, for the template mapping to that layout.
+		 */
+		private Update toUpdate(ReservationFields fields) {
+			var update = new Update();
+			sets.forEach((field, value) -> update.set(fields.name(field), value));
+			pushes.forEach((field, values) -> update.push(fields.name(field)).each(values.toArray()));
+			return update;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package jdriven.training.mongodb.persistence.changes;
+
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.lang.Nullable;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A change to a reservation. The reservation is its state after the change, or null when it was
+ * deleted in the meantime. For updates, changedFields contains the top-level fields that were set or
+ * removed, for other operations it is empty. Before is the state before an update, replacement or
+ * delete, when pre-images are enabled on the reservation collection, see {@link
+ * jdriven.training.mongodb.persistence.ReservationAvailability}.
+ */
+public record ReservationChange(
+		OperationType operation,
+		UUID id,
+		@Nullable
+		ReservationEntity reservation,
+		Set<String> changedFields,
+		@Nullable
+		ReservationEntity before
+) {}
@@ -0,0 +1,32 @@
+package jdriven.training.mongodb.persistence.changes;
+
+import java.util.List;
+
+/**
+ * Receives changes to reservations, made by any node, in the order they were made. Every bean
+ * implementing this interface gets its own subscription to the change stream.
+ * <p>
+ * Changes are delivered at least once: the position in the change stream is only stored after
+ * {@link #accept} returns, so after a failure or restart, the last batch may be delivered again.
+ * While accept runs, no further changes are read for this consumer.
+ */
+public interface ReservationChangeConsumer {
+
+	/**
+	 * Identifies the subscription, its position in the change stream is stored under this name.
+	 */
+	String name();
+
+	default ReservationChangeFilter filter() {
+		return ReservationChangeFilter.all();
+	}
+
+	/**
+	 * Called on the thread of the subscription each time its change stream has been opened, before
+	 * any change is delivered. Resumed is false when the subscription starts at the current moment,
+	 * because it is new or its stored position was no longer available, so earlier changes are missed.
+	 */
+	default void subscribed(boolean resumed) {}
+
+	void accept(List<ReservationChange> changes);
+}
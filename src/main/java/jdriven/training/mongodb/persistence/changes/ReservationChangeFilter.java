@@ -0,0 +1,64 @@
+package jdriven.training.mongodb.persistence.changes;
+
+import com.mongodb.client.model.changestream.OperationType;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import org.bson.Document;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Selects the changes a consumer is interested in. The selection is done by MongoDB, so changes
+ * that are not of interest never leave the database. For example, to be notified of new
+ * reservations and of damages being filed:
+ * <pre>
+ * ReservationChangeFilter.operations(OperationType.INSERT, OperationType.UPDATE).fields("damages")
+ * </pre>
+ */
+public record ReservationChangeFilter(
+		Set<OperationType> operations,
+		Set<String> fields
+) {
+
+	public static ReservationChangeFilter all() {
+		return operations(OperationType.INSERT, OperationType.UPDATE, OperationType.REPLACE, OperationType.DELETE);
+	}
+
+	public static ReservationChangeFilter operations(OperationType first, OperationType... others) {
+		return new ReservationChangeFilter(EnumSet.of(first, others), Set.of());
+	}
+
+	/**
+	 * Only selects updates which set or remove at least one of the given top-level fields, including
+	 * changes to their elements or nested fields. Other operations are not affected. Fields are named
+	 * by their property, also when reservations are stored with compact names.
+	 */
+	public ReservationChangeFilter fields(String... fields) {
+		return new ReservationChangeFilter(operations, Set.of(fields));
+	}
+
+	List<Document> pipeline(ReservationFields stored) {
+		var names = operations.stream().map(OperationType::getValue).toList();
+		if (fields.isEmpty() || !operations.contains(OperationType.UPDATE)) {
+			return List.of(new Document("$match", new Document("operationType", new Document("$in", names))));
+		}
+
+		var others = names.stream().filter(name -> !name.equals(OperationType.UPDATE.getValue())).toList();
+		var pattern = fields.stream().map(stored::name).map(Pattern::quote).collect(Collectors.joining("|", "^(", ")(\\.|$)"));
+		var changed = new Document("$concatArrays", List.of(
+				new Document("$map", new Document("input", new Document("$objectToArray", "$updateDescription.updatedFields")).append("in", "$$this.k")),
+				"$updateDescription.removedFields"
+		));
+		var touched = new Document("$filter", new Document("input", changed)
+				.append("cond", new Document("$regexMatch", new Document("input", "$$this").append("regex", pattern))));
+
+		return List.of(new Document("$match", new Document("$or", List.of(
+				new Document("operationType", new Document("$in", others)),
+				new Document("operationType", OperationType.UPDATE.getValue())
+						.append("$expr", new Document("$gt", List.of(new Document("$size", touched), 0)))
+		))));
+	}
+}
@@ -0,0 +1,268 @@
+package jdriven.training.mongodb.persistence.changes;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.lang.Nullable;
+import jdriven.training.mongodb.config.MongoDbProperties;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscribes each {@link ReservationChangeConsumer} to the change stream of the reservation collection,
+ * such that consumers receive changes as they happen instead of repeatedly querying for them. The
+ * change streams are opened before {@link #start} returns, after which each subscription reads on its
+ * own thread, and delivers the changes in batches. The position of each subscription is stored in
+ * the reservation-change-tokens collection, and resumed from after a restart or failure.
+ */
+@Slf4j
+@Component
+public class ReservationChangeStreams implements SmartLifecycle {
+
+	public static final String TOKEN_COLLECTION = "reservation-change-tokens";
+
+	/**
+	 * MongoDB no longer has the changes after the stored position in its oplog.
+	 */
+	private static final Set<Integer> HISTORY_LOST = Set.of(280, 286);
+
+	private final MongoTemplate mongo;
+	private final ReservationFields fields;
+	private final List<ReservationChangeConsumer> consumers;
+	private final MongoDbProperties.ChangeStreams settings;
+	private final List<Subscription> subscriptions = new ArrayList<>();
+
+	public ReservationChangeStreams(MongoTemplate mongo, List<ReservationChangeConsumer> consumers, MongoDbProperties properties) {
+		this.mongo = mongo;
+		this.fields = ReservationFields.of(mongo.getConverter());
+		this.consumers = consumers;
+		this.settings = properties.changeStreams();
+	}
+
+	@Override
+	public synchronized void start() {
+		for (var consumer : consumers) {
+			var subscription = new Subscription(consumer);
+			subscription.openFirst();
+			subscriptions.add(subscription);
+			subscription.thread.start();
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		subscriptions.forEach(subscription -> subscription.running = false);
+		for (var subscription : subscriptions) {
+			try {
+				// Reading returns after at most maxWait, unless a batch is being delivered
+				subscription.thread.join(settings.maxWait().toMillis() * 2 + 1_000);
+				if (subscription.thread.isAlive()) {
+					subscription.thread.interrupt();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		subscriptions.clear();
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return !subscriptions.isEmpty();
+	}
+
+	/**
+	 * The stored position of the given consumer, or null when it has not received any changes yet.
+	 */
+	@Nullable
+	public BsonDocument token(String name) {
+		var stored = tokens().find(Filters.eq("_id", name)).first();
+		return stored == null ? null : stored.getDocument("token");
+	}
+
+	private void saveToken(String name, BsonDocument token) {
+		var stored = new BsonDocument("_id", new BsonString(name))
+				.append("token", token)
+				.append("updatedAt", new BsonDateTime(System.currentTimeMillis()));
+		tokens().replaceOne(Filters.eq("_id", name), stored, new ReplaceOptions().upsert(true));
+	}
+
+	private com.mongodb.client.MongoCollection<BsonDocument> tokens() {
+		return mongo.getCollection(TOKEN_COLLECTION).withDocumentClass(BsonDocument.class);
+	}
+
+	private final class Subscription implements Runnable {
+
+		private final ReservationChangeConsumer consumer;
+		private final Thread thread;
+		private volatile boolean running = true;
+		/**
+		 * The cursor opened by {@link #start}, handed over to the thread of the subscription.
+		 */
+		@Nullable
+		private MongoChangeStreamCursor<ChangeStreamDocument<Document>> first;
+		private boolean firstResumed;
+
+		private Subscription(ReservationChangeConsumer consumer) {
+			this.consumer = consumer;
+			this.thread = new Thread(this, "reservation-changes-" + consumer.name());
+			this.thread.setDaemon(true);
+		}
+
+		/**
+		 * Opens the change stream on the starting thread, such that every change made once the
+		 * application has started is received. When MongoDB is unavailable, the thread of the
+		 * subscription keeps trying instead.
+		 */
+		private void openFirst() {
+			try {
+				var token = token(consumer.name());
+				first = open(token);
+				firstResumed = token != null;
+			} catch (RuntimeException e) {
+				log.warn("Could not open the change stream of {}, retrying in the background", consumer.name(), e);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				var cursor = first;
+				var resumed = firstResumed;
+				first = null;
+				try {
+					if (cursor == null) {
+						var token = token(consumer.name());
+						cursor = open(token);
+						resumed = token != null;
+					}
+					try (var opened = cursor) {
+						consumer.subscribed(resumed);
+						read(opened);
+					}
+				} catch (MongoException e) {
+					if (HISTORY_LOST.contains(e.getCode())) {
+						log.error("Changes for {} are no longer available, continuing with new changes only", consumer.name(), e);
+						tokens().deleteOne(Filters.eq("_id", consumer.name()));
+						continue;
+					}
+					retry(e);
+				} catch (RuntimeException e) {
+					// Either MongoTemplate or the consumer failed, the batch will be delivered again
+					retry(e);
+				}
+			}
+		}
+
+		private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(@Nullable BsonDocument token) {
+			var changes = mongo.getCollection(mongo.getCollectionName(ReservationEntity.class))
+					.watch(consumer.filter().pipeline(fields))
+					.fullDocument(FullDocument.UPDATE_LOOKUP)
+					.fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+					.batchSize(settings.batchSize())
+					.maxAwaitTime(settings.maxWait().toMillis(), TimeUnit.MILLISECONDS);
+			if (token != null) {
+				changes.resumeAfter(token);
+			}
+			return changes.cursor();
+		}
+
+		/**
+		 * Reads until stopped, delivering a batch once it is full or its first change has waited
+		 * maxWait. Reading pauses while the consumer processes a batch, changes accumulate in the
+		 * oplog in the meantime.
+		 */
+		private void read(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+			var batch = new ArrayList<ReservationChange>(settings.batchSize());
+			var deadline = 0L;
+			while (running) {
+				var event = cursor.tryNext();
+				if (event != null) {
+					if (batch.isEmpty()) {
+						deadline = System.nanoTime() + settings.maxWait().toNanos();
+					}
+					var change = change(event);
+					if (change != null) {
+						batch.add(change);
+					}
+				}
+
+				var due = event == null || batch.size() >= settings.batchSize() || System.nanoTime() >= deadline;
+				if (!batch.isEmpty() && due) {
+					consumer.accept(List.copyOf(batch));
+					batch.clear();
+					saveToken(consumer.name(), cursor.getResumeToken());
+				}
+			}
+		}
+
+		private void retry(Exception e) {
+			if (!running) {
+				return;
+			}
+			log.warn("Change stream of {} failed, resuming in {}", consumer.name(), settings.retryDelay(), e);
+			try {
+				Thread.sleep(settings.retryDelay().toMillis());
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+		}
+	}
+
+	@Nullable
+	private ReservationChange change(ChangeStreamDocument<Document> event) {
+		var key = event.getDocumentKey();
+		if (key == null || !key.isBinary("_id")) {
+			return null;
+		}
+
+		var changed = new HashSet<String>();
+		var update = event.getUpdateDescription();
+		if (update != null) {
+			if (update.getUpdatedFields() != null) {
+				update.getUpdatedFields().keySet().forEach(field -> changed.add(topLevel(field)));
+			}
+			if (update.getRemovedFields() != null) {
+				update.getRemovedFields().forEach(field -> changed.add(topLevel(field)));
+			}
+		}
+
+		var document = event.getFullDocument();
+		var before = event.getFullDocumentBeforeChange();
+		return new ReservationChange(
+				event.getOperationType(),
+				key.getBinary("_id").asUuid(),
+				document == null ? null : mongo.getConverter().read(ReservationEntity.class, document),
+				Set.copyOf(changed),
+				before == null ? null : mongo.getConverter().read(ReservationEntity.class, before)
+		);
+	}
+
+	/**
+	 * The property a changed field belongs to, whichever names the reservations are stored with.
+	 */
+	private String topLevel(String field) {
+		var dot = field.indexOf('.');
+		return fields.property(dot < 0 ? field : field.substring(0, dot));
+	}
+}
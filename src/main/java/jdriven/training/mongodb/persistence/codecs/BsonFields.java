@@ -0,0 +1,76 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reading and writing of the field types shared by our documents. Dates are stored the same way
+ * Spring Data stores a LocalDate: as the start of the day in the system time zone.
+ */
+final class BsonFields {
+
+	private BsonFields() {
+	}
+
+	static long toEpochMilli(LocalDate date) {
+		return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+	static LocalDate toLocalDate(long epochMilli) {
+		return Instant.ofEpochMilli(epochMilli).atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+
+	static LocalDate toLocalDate(Date date) {
+		return toLocalDate(date.getTime());
+	}
+
+	static long toLong(Object number) {
+		return ((Number) number).longValue();
+	}
+
+	static long readLong(BsonReader reader) {
+		return switch (reader.getCurrentBsonType()) {
+			case INT32 -> reader.readInt32();
+			case INT64 -> reader.readInt64();
+			case DOUBLE -> (long) reader.readDouble();
+			default -> throw new IllegalStateException("Expected a number, but found " + reader.getCurrentBsonType());
+		};
+	}
+
+	static List<String> readStrings(BsonReader reader) {
+		var values = new ArrayList<String>();
+		reader.readStartArray();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			values.add(reader.readString());
+		}
+		reader.readEndArray();
+		return values;
+	}
+
+	static void writeStrings(BsonWriter writer, String name, List<String> values) {
+		writer.writeStartArray(name);
+		for (var value : values) {
+			writer.writeString(value);
+		}
+		writer.writeEndArray();
+	}
+
+	/**
+	 * Skips a null value, returning whether there was one.
+	 */
+	static boolean skipNull(BsonReader reader) {
+		if (reader.getCurrentBsonType() == BsonType.NULL) {
+			reader.readNull();
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,48 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import jdriven.training.mongodb.persistence.views.ReservationCheckin;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public class ReservationCheckinCodec implements Codec<ReservationCheckin> {
+
+	@Override
+	public void encode(BsonWriter writer, ReservationCheckin value, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeDateTime("date", BsonFields.toEpochMilli(value.date()));
+		BsonFields.writeStrings(writer, "bookers", value.bookers());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public ReservationCheckin decode(BsonReader reader, DecoderContext decoderContext) {
+		LocalDate date = null;
+		List<String> bookers = null;
+		reader.readStartDocument();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			var name = reader.readName();
+			if (BsonFields.skipNull(reader)) {
+				continue;
+			}
+			switch (name) {
+				case "date" -> date = BsonFields.toLocalDate(reader.readDateTime());
+				case "bookers" -> bookers = BsonFields.readStrings(reader);
+				default -> reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new ReservationCheckin(date, bookers);
+	}
+
+	@Override
+	public Class<ReservationCheckin> getEncoderClass() {
+		return ReservationCheckin.class;
+	}
+}
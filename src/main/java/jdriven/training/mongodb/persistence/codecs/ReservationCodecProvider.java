@@ -0,0 +1,44 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import jdriven.training.mongodb.persistence.ReservationFields;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.List;
+
+/**
+ * Provides the hand-written codecs to the driver, for example when using a collection with
+ * {@code withDocumentClass(ReservationEntity.class)} from a MongoTemplate collection callback.
+ */
+public class ReservationCodecProvider implements CodecProvider {
+
+	private final List<Codec<?>> codecs;
+
+	public ReservationCodecProvider() {
+		this(ReservationFields.VERBOSE);
+	}
+
+	/**
+	 * The codecs for reservations stored with the given field names. The views are always stored
+	 * with their property names.
+	 */
+	public ReservationCodecProvider(ReservationFields fields) {
+		this.codecs = List.of(
+				new ReservationEntityCodec(fields),
+				new ReservationCheckinCodec(),
+				new ReservationIncomeSummaryCodec(),
+				new ReservationInsuranceClaimCodec()
+		);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+		return codecs.stream()
+				.filter(codec -> codec.getEncoderClass() == clazz)
+				.map(codec -> (Codec<T>) codec)
+				.findFirst()
+				.orElse(null);
+	}
+}
@@ -0,0 +1,118 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import jdriven.training.mongodb.persistence.views.ReservationCheckin;
+import jdriven.training.mongodb.persistence.views.ReservationIncomeSummary;
+import jdriven.training.mongodb.persistence.views.ReservationInsuranceClaim;
+import org.bson.Document;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * MongoTemplate maps documents to our records by reflection. When registered, these converters read
+ * them by hand instead, reading both layouts like {@link ReservationEntityCodec}. There are no writing
+ * converters, since Spring Data would then treat our entity as a simple type and stop mapping its
+ * properties in queries and updates.
+ */
+public final class ReservationConverters {
+
+	private ReservationConverters() {
+	}
+
+	public static List<Converter<?, ?>> all() {
+		return all(ReservationFields.VERBOSE);
+	}
+
+	/**
+	 * The converters for reservations stored with the given field names.
+	 */
+	public static List<Converter<?, ?>> all(ReservationFields fields) {
+		return List.of(
+				new EntityReader(fields),
+				new CheckinReader(),
+				new IncomeSummaryReader(),
+				new InsuranceClaimReader()
+		);
+	}
+
+	@ReadingConverter
+	static class EntityReader implements Converter<Document, ReservationEntity> {
+
+		private final ReservationFields fields;
+
+		EntityReader(ReservationFields fields) {
+			this.fields = fields;
+		}
+
+		@Override
+		public ReservationEntity convert(Document source) {
+			var price = source.get(name(source, ReservationFields::price));
+			var date = source.getDate(name(source, ReservationFields::date));
+			return ReservationEntity.builder()
+					.id(source.get("_id", UUID.class))
+					.price(price == null ? null : BsonFields.toLong(price))
+					.date(date == null ? null : BsonFields.toLocalDate(date))
+					.chalet(source.getString(name(source, ReservationFields::chalet)))
+					.booker(source.getString(name(source, ReservationFields::booker)))
+					.guests(source.getList(name(source, ReservationFields::guests), String.class))
+					.hasPaid(source.getBoolean(name(source, ReservationFields::hasPaid)))
+					.hasInsurance(source.getBoolean(name(source, ReservationFields::hasInsurance)))
+					.damages(source.getList(name(source, ReservationFields::damages), String.class))
+					.build();
+		}
+
+		/**
+		 * The name of the field in our layout, or in the other one for reservations not migrated yet.
+		 */
+		private String name(Document source, Function<ReservationFields, String> field) {
+			var name = field.apply(fields);
+			return source.containsKey(name) ? name : field.apply(fields.other());
+		}
+	}
+
+	@ReadingConverter
+	static class CheckinReader implements Converter<Document, ReservationCheckin> {
+
+		@Override
+		public ReservationCheckin convert(Document source) {
+			var date = source.getDate("date");
+			return new ReservationCheckin(
+					date == null ? null : BsonFields.toLocalDate(date),
+					source.getList("bookers", String.class)
+			);
+		}
+	}
+
+	@ReadingConverter
+	static class IncomeSummaryReader implements Converter<Document, ReservationIncomeSummary> {
+
+		@Override
+		public ReservationIncomeSummary convert(Document source) {
+			var income = source.get("income");
+			return new ReservationIncomeSummary(
+					source.getString("_id"),
+					income == null ? null : BsonFields.toLong(income)
+			);
+		}
+	}
+
+	@ReadingConverter
+	static class InsuranceClaimReader implements Converter<Document, ReservationInsuranceClaim> {
+
+		@Override
+		public ReservationInsuranceClaim convert(Document source) {
+			var date = source.getDate("date");
+			return new ReservationInsuranceClaim(
+					date == null ? null : BsonFields.toLocalDate(date),
+					source.getString("chalet"),
+					source.getString("damage"),
+					Boolean.TRUE.equals(source.getBoolean("hasInsurance"))
+			);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Encodes and decodes reservations directly, without reflection. The layout is the same as the one
+ * written by Spring Data, null fields are left out and unknown fields such as _class are skipped.
+ * Reservations stored in the other layout are read as well, so they stay readable while a schema
+ * migration runs; the layouts share no field names.
+ */
+public class ReservationEntityCodec implements Codec<ReservationEntity> {
+
+	private final ReservationFields fields;
+
+	public ReservationEntityCodec() {
+		this(ReservationFields.VERBOSE);
+	}
+
+	public ReservationEntityCodec(ReservationFields fields) {
+		this.fields = fields;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, ReservationEntity value, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		if (value.id() != null) {
+			writer.writeBinaryData("_id", new BsonBinary(value.id(), UuidRepresentation.STANDARD));
+		}
+		if (value.price() != null) {
+			writer.writeInt64(fields.price(), value.price());
+		}
+		if (value.date() != null) {
+			writer.writeDateTime(fields.date(), BsonFields.toEpochMilli(value.date()));
+		}
+		if (value.chalet() != null) {
+			writer.writeString(fields.chalet(), value.chalet());
+		}
+		if (value.booker() != null) {
+			writer.writeString(fields.booker(), value.booker());
+		}
+		if (value.guests() != null) {
+			BsonFields.writeStrings(writer, fields.guests(), value.guests());
+		}
+		if (value.hasPaid() != null) {
+			writer.writeBoolean(fields.hasPaid(), value.hasPaid());
+		}
+		if (value.hasInsurance() != null) {
+			writer.writeBoolean(fields.hasInsurance(), value.hasInsurance());
+		}
+		if (value.damages() != null) {
+			BsonFields.writeStrings(writer, fields.damages(), value.damages());
+		}
+		if (value.booker() != null) {
+			writer.writeString(fields.bookerLowercase(), ReservationEntity.lowercase(value.booker()));
+		}
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public ReservationEntity decode(BsonReader reader, DecoderContext decoderContext) {
+		var builder = ReservationEntity.builder();
+		reader.readStartDocument();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			var name = reader.readName();
+			if (BsonFields.skipNull(reader)) {
+				continue;
+			}
+			switch (fields.other().property(fields.property(name))) {
+				case "_id" -> builder.id(reader.readBinaryData().asUuid());
+				case "price" -> builder.price(BsonFields.readLong(reader));
+				case "date" -> builder.date(BsonFields.toLocalDate(reader.readDateTime()));
+				case "chalet" -> builder.chalet(reader.readString());
+				case "booker" -> builder.booker(reader.readString());
+				case "guests" -> builder.guests(BsonFields.readStrings(reader));
+				case "hasPaid" -> builder.hasPaid(reader.readBoolean());
+				case "hasInsurance" -> builder.hasInsurance(reader.readBoolean());
+				case "damages" -> builder.damages(BsonFields.readStrings(reader));
+				default -> reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return builder.build();
+	}
+
+	@Override
+	public Class<ReservationEntity> getEncoderClass() {
+		return ReservationEntity.class;
+	}
+}
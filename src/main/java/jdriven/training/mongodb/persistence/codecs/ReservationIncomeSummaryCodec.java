@@ -0,0 +1,45 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import jdriven.training.mongodb.persistence.views.ReservationIncomeSummary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+public class ReservationIncomeSummaryCodec implements Codec<ReservationIncomeSummary> {
+
+	@Override
+	public void encode(BsonWriter writer, ReservationIncomeSummary value, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeString("_id", value.id());
+		writer.writeInt64("income", value.income());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public ReservationIncomeSummary decode(BsonReader reader, DecoderContext decoderContext) {
+		String id = null;
+		Long income = null;
+		reader.readStartDocument();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			var name = reader.readName();
+			if (BsonFields.skipNull(reader)) {
+				continue;
+			}
+			switch (name) {
+				case "_id" -> id = reader.readString();
+				case "income" -> income = BsonFields.readLong(reader);
+				default -> reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new ReservationIncomeSummary(id, income);
+	}
+
+	@Override
+	public Class<ReservationIncomeSummary> getEncoderClass() {
+		return ReservationIncomeSummary.class;
+	}
+}
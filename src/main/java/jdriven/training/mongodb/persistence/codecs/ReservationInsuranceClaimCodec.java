@@ -0,0 +1,53 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import jdriven.training.mongodb.persistence.views.ReservationInsuranceClaim;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.LocalDate;
+
+public class ReservationInsuranceClaimCodec implements Codec<ReservationInsuranceClaim> {
+
+	@Override
+	public void encode(BsonWriter writer, ReservationInsuranceClaim value, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeDateTime("date", BsonFields.toEpochMilli(value.date()));
+		writer.writeString("chalet", value.chalet());
+		writer.writeString("damage", value.damage());
+		writer.writeBoolean("hasInsurance", value.hasInsurance());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public ReservationInsuranceClaim decode(BsonReader reader, DecoderContext decoderContext) {
+		LocalDate date = null;
+		String chalet = null;
+		String damage = null;
+		boolean hasInsurance = false;
+		reader.readStartDocument();
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			var name = reader.readName();
+			if (BsonFields.skipNull(reader)) {
+				continue;
+			}
+			switch (name) {
+				case "date" -> date = BsonFields.toLocalDate(reader.readDateTime());
+				case "chalet" -> chalet = reader.readString();
+				case "damage" -> damage = reader.readString();
+				case "hasInsurance" -> hasInsurance = reader.readBoolean();
+				default -> reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new ReservationInsuranceClaim(date, chalet, damage, hasInsurance);
+	}
+
+	@Override
+	public Class<ReservationInsuranceClaim> getEncoderClass() {
+		return ReservationInsuranceClaim.class;
+	}
+}
@@ -0,0 +1,9 @@
+package jdriven.training.mongodb.persistence.views;
+
+import java.time.LocalDate;
+
+public record ReservationChaletIncome(
+		LocalDate date,
+		String chalet,
+		Long income
+) {}
@@ -0,0 +1,177 @@
+package jdriven.training.mongodb.persistence.views;
+
+import jakarta.annotation.PostConstruct;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import jdriven.training.mongodb.persistence.changes.ReservationChange;
+import jdriven.training.mongodb.persistence.changes.ReservationChangeConsumer;
+import jdriven.training.mongodb.persistence.changes.ReservationChangeFilter;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * On busy days the front desk reloads the check-in list constantly. Instead of aggregating all
+ * reservations of the day each time, we keep a document per date listing the reservations and their
+ * bookers. Since reservations are tracked individually, removing one reservation does not remove a
+ * booker who has another reservation on the same date.
+ * <p>
+ * The lists follow the change stream of the reservation collection, so writes by every node are
+ * included, a moment after they were made. Each change replaces the entry of its reservation, which
+ * makes delivering a change twice harmless. At startup, and whenever the change stream could not be
+ * resumed, all lists are rebuilt before further changes are applied. Only lists marked complete, by a
+ * rebuild or by being created from the change stream, are read by
+ * {@link jdriven.training.mongodb.persistence.ReservationRepository#pipelineExample_checkinList}, which
+ * aggregates the reservations of other dates.
+ */
+@Component
+public class ReservationCheckinView implements ReservationChangeConsumer {
+
+	public static final String COLLECTION = "reservation-checkin-view";
+
+	private final MongoTemplate mongo;
+	private volatile boolean rebuilt;
+
+	@Autowired
+	public ReservationCheckinView(MongoTemplate mongo) {
+		this.mongo = mongo;
+	}
+
+	private ReservationCheckinView() {
+		this.mongo = null;
+	}
+
+	/**
+	 * A view which never has a check-in list, so the repository always aggregates.
+	 */
+	public static ReservationCheckinView disabled() {
+		return new ReservationCheckinView();
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		mongo.indexOps(COLLECTION).ensureIndex(new Index().named("entries_reservation").on("entries.reservation", Sort.Direction.ASC));
+	}
+
+	/**
+	 * Reads the check-in list of the given date with a single point read. Dates without reservations,
+	 * and dates of which the list is not complete, have no check-in list.
+	 */
+	public Optional<ReservationCheckin> find(LocalDate date) {
+		if (mongo == null) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(mongo.findById(date, Document.class, COLLECTION))
+				.filter(view -> view.getBoolean("complete", false))
+				.map(view -> view.getList("entries", Document.class))
+				.filter(entries -> !entries.isEmpty())
+				.map(entries -> new ReservationCheckin(date, entries.stream()
+						.map(entry -> entry.getString("booker"))
+						.distinct()
+						.toList()));
+	}
+
+	/**
+	 * Recomputes the check-in lists of the given date range from the reservations, for example when
+	 * the views are suspected to be inconsistent. The lists are replaced in place, and only then are
+	 * the lists of dates without reservations removed, so readers never see a date without its list.
+	 * Changes applied from the change stream while this runs may be overwritten until the next change
+	 * of the same reservation.
+	 */
+	public void rebuild(LocalDate from, LocalDate to) {
+		rebuild(Criteria.where("date").gte(from).lte(to), Criteria.where("_id").gte(from).lte(to));
+	}
+
+	@Override
+	public String name() {
+		return "checkin-view";
+	}
+
+	@Override
+	public ReservationChangeFilter filter() {
+		return ReservationChangeFilter.all().fields("date", "booker");
+	}
+
+	/**
+	 * Rebuilds every list the first time the change stream is opened, and when changes were missed.
+	 * Since this runs on the thread of the subscription, no changes are applied in the meantime, and
+	 * the changes made during the rebuild are applied after it.
+	 */
+	@Override
+	public void subscribed(boolean resumed) {
+		if (!rebuilt || !resumed) {
+			rebuild(new Criteria(), new Criteria());
+			rebuilt = true;
+		}
+	}
+
+	/**
+	 * Removes the entry of each changed reservation from other dates, and replaces it in its current
+	 * date. Deleted reservations are removed from every date.
+	 */
+	@Override
+	public void accept(List<ReservationChange> changes) {
+		for (var change : changes) {
+			var reservation = change.reservation();
+			var others = Criteria.where("entries.reservation").is(change.id());
+			if (reservation != null) {
+				others.and("_id").ne(reservation.date());
+			}
+			mongo.updateMulti(Query.query(others), new Update().pull("entries", new Document("reservation", change.id())), COLLECTION);
+			if (reservation != null) {
+				mongo.upsert(Query.query(Criteria.where("_id").is(reservation.date())), replaceEntry(change.id(), reservation.booker()), COLLECTION);
+			}
+		}
+	}
+
+	private void rebuild(Criteria reservations, Criteria views) {
+		// The pushed document is not mapped, so it refers to the booker by its stored name
+		var booker = ReservationFields.of(mongo.getConverter()).booker();
+		var pipeline = Aggregation.newAggregation(
+				Aggregation.match(reservations),
+				Aggregation.group("date").push(new Document("reservation", "$_id").append("booker", "$" + booker)).as("entries"),
+				Aggregation.addFields().addField("complete").withValue(true).build(),
+				Aggregation.merge()
+						.intoCollection(COLLECTION)
+						.whenMatched(MergeOperation.WhenDocumentsMatch.replaceDocument())
+						.whenDocumentsDontMatch(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+						.build()
+		);
+
+		mongo.aggregate(pipeline, ReservationEntity.class, Document.class);
+
+		var dates = mongo.findDistinct(Query.query(reservations), "date", ReservationEntity.class, LocalDate.class);
+		mongo.remove(Query.query(new Criteria().andOperator(views, Criteria.where("_id").nin(dates))), COLLECTION);
+	}
+
+	/**
+	 * Replaces the entry of the reservation in a single update, so readers never miss it. A list
+	 * created by this update is complete, one which existed before the view was rebuilt stays as it is.
+	 */
+	private static AggregationUpdate replaceEntry(UUID id, String booker) {
+		var others = new Document("$filter", new Document("input", new Document("$ifNull", List.of("$entries", List.of())))
+				.append("cond", new Document("$ne", List.of("$$this.reservation", id))));
+		var created = new Document("$eq", List.of(new Document("$type", "$entries"), "missing"));
+		return AggregationUpdate.from(List.of(context -> new Document("$set", new Document()
+				.append("entries", new Document("$concatArrays", List.of(others, List.of(new Document("$literal", entry(id, booker))))))
+				.append("complete", new Document("$ifNull", List.of("$complete", created))))));
+	}
+
+	private static Document entry(UUID id, String booker) {
+		return new Document("reservation", id).append("booker", booker);
+	}
+}
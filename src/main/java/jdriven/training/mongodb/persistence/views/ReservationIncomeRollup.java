@@ -0,0 +1,252 @@
+package jdriven.training.mongodb.persistence.views;
+
+import jakarta.annotation.PostConstruct;
+import jdriven.training.mongodb.persistence.ReservationArchive;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.changes.ReservationChange;
+import jdriven.training.mongodb.persistence.changes.ReservationChangeConsumer;
+import jdriven.training.mongodb.persistence.changes.ReservationChangeFilter;
+import lombok.AllArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Keeps income totals per month in reservation-monthly-income-view, and per chalet per day in
+ * reservation-chalet-income-view, such that month-end reporting is a single read instead of a scan
+ * over the month. The totals include the reservations in the {@link ReservationArchive}.
+ * <p>
+ * The totals follow the change stream of the reservation collection. Instead of incrementing them,
+ * each batch of changes recomputes the totals of the months and chalet-days it touched, which makes
+ * delivering a change twice harmless. The months and chalet-days a reservation was moved away from,
+ * or deleted from, are only known when pre-images are enabled, otherwise they are corrected by the
+ * next backfill. The backfill recomputes whole months with $merge pipelines, replacing the totals
+ * in place, and runs by itself when the change stream could not be resumed. The monthly totals are
+ * not kept in reservation-income-view, which belongs to the income exercise.
+ */
+@Component
+@AllArgsConstructor
+public class ReservationIncomeRollup implements ReservationChangeConsumer {
+
+	public static final String MONTHLY_COLLECTION = "reservation-monthly-income-view";
+	public static final String DAILY_COLLECTION = "reservation-chalet-income-view";
+
+	private final MongoTemplate mongo;
+	private final ReservationArchive archive;
+
+	@PostConstruct
+	public void ensureIndexes() {
+		mongo.indexOps(DAILY_COLLECTION).ensureIndex(new Index()
+				.named("chalet_date")
+				.on("_id.chalet", Sort.Direction.ASC)
+				.on("_id.date", Sort.Direction.ASC));
+	}
+
+	public Optional<ReservationIncomeSummary> monthly(Year year, Month month) {
+		return Optional.ofNullable(mongo.findById(year.atMonth(month).toString(), ReservationIncomeSummary.class, MONTHLY_COLLECTION));
+	}
+
+	public List<ReservationChaletIncome> daily(String chalet, LocalDate from, LocalDate to) {
+		var query = Query.query(Criteria.where("_id.chalet").is(chalet).and("_id.date").gte(from).lte(to));
+		query.with(Sort.by(Sort.Order.asc("_id.date")));
+		return mongo.find(query, Document.class, DAILY_COLLECTION).stream()
+				.map(document -> {
+					var id = document.get("_id", Document.class);
+					return new ReservationChaletIncome(toLocalDate(id), id.getString("chalet"), document.getLong("income"));
+				})
+				.toList();
+	}
+
+	/**
+	 * Recomputes the totals of every month touched by the given date range. Totals are replaced in
+	 * place, so readers never see a month without its total. Totals left without reservations are
+	 * recomputed one by one afterwards, which removes them.
+	 */
+	public void backfill(LocalDate from, LocalDate to) {
+		var start = YearMonth.from(from).atDay(1);
+		var end = YearMonth.from(to).atEndOfMonth();
+		backfill(
+				Criteria.where("date").gte(start).lte(end),
+				Criteria.where("_id").gte(YearMonth.from(start).toString()).lte(YearMonth.from(end).toString()),
+				Criteria.where("_id.date").gte(start).lte(end)
+		);
+	}
+
+	@Override
+	public String name() {
+		return "income-rollup";
+	}
+
+	@Override
+	public ReservationChangeFilter filter() {
+		return ReservationChangeFilter.all().fields("price", "date", "chalet");
+	}
+
+	/**
+	 * Backfills every month when changes were missed. On the thread of the subscription, so changes
+	 * made in the meantime are applied afterwards.
+	 */
+	@Override
+	public void subscribed(boolean resumed) {
+		if (!resumed) {
+			backfill(new Criteria(), new Criteria(), new Criteria());
+		}
+	}
+
+	@Override
+	public void accept(List<ReservationChange> changes) {
+		var months = new HashSet<YearMonth>();
+		var days = new HashSet<Day>();
+		changes.stream()
+				.flatMap(change -> Stream.of(change.before(), change.reservation()))
+				.filter(Objects::nonNull)
+				.forEach(reservation -> {
+					months.add(YearMonth.from(reservation.date()));
+					days.add(new Day(reservation.date(), reservation.chalet()));
+				});
+		recompute(months, days);
+	}
+
+	private void backfill(Criteria reservations, Criteria monthly, Criteria daily) {
+		var run = UUID.randomUUID().toString();
+		mongo.aggregate(pipeline(reservations,
+				month(),
+				Aggregation.group("month").sum("price").as("income"),
+				Aggregation.addFields().addField("run").withValue(run).build(),
+				merge(MONTHLY_COLLECTION)
+		), ReservationEntity.class, Document.class);
+		mongo.aggregate(pipeline(reservations,
+				Aggregation.group("date", "chalet").sum("price").as("income"),
+				Aggregation.addFields().addField("run").withValue(run).build(),
+				merge(DAILY_COLLECTION)
+		), ReservationEntity.class, Document.class);
+
+		// Totals not replaced by this run had no reservations, or were recomputed from a change since
+		var months = new HashSet<YearMonth>();
+		var days = new HashSet<Day>();
+		mongo.find(Query.query(new Criteria().andOperator(monthly, Criteria.where("run").ne(run))), Document.class, MONTHLY_COLLECTION)
+				.forEach(total -> months.add(YearMonth.parse(total.getString("_id"))));
+		mongo.find(Query.query(new Criteria().andOperator(daily, Criteria.where("run").ne(run))), Document.class, DAILY_COLLECTION)
+				.forEach(total -> {
+					var id = total.get("_id", Document.class);
+					days.add(new Day(toLocalDate(id), id.getString("chalet")));
+				});
+		recompute(months, days);
+	}
+
+	/**
+	 * Recomputes the totals of the given months and chalet-days from the reservations, removing those
+	 * without reservations.
+	 */
+	private void recompute(Set<YearMonth> months, Set<Day> days) {
+		if (!months.isEmpty()) {
+			var totals = new HashMap<String, Long>();
+			var dates = months.stream()
+					.map(month -> Criteria.where("date").gte(month.atDay(1)).lte(month.atEndOfMonth()))
+					.toArray(Criteria[]::new);
+			mongo.aggregate(pipeline(new Criteria().orOperator(dates),
+					month(),
+					Aggregation.group("month").sum("price").as("income")
+			), ReservationEntity.class, Document.class).forEach(total -> totals.put(total.getString("_id"), total.getLong("income")));
+
+			var operations = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, MONTHLY_COLLECTION);
+			for (var month : months) {
+				var query = Query.query(Criteria.where("_id").is(month.toString()));
+				var income = totals.get(month.toString());
+				if (income == null) {
+					operations.remove(query);
+				} else {
+					operations.upsert(query, new Update().set("income", income).unset("run"));
+				}
+			}
+			operations.execute();
+		}
+
+		if (!days.isEmpty()) {
+			var totals = new HashMap<Day, Long>();
+			var chaletDays = days.stream()
+					.map(day -> Criteria.where("date").is(day.date()).and("chalet").is(day.chalet()))
+					.toArray(Criteria[]::new);
+			mongo.aggregate(pipeline(new Criteria().orOperator(chaletDays),
+					Aggregation.group("date", "chalet").sum("price").as("income")
+			), ReservationEntity.class, Document.class).forEach(total -> {
+				var id = total.get("_id", Document.class);
+				totals.put(new Day(toLocalDate(id), id.getString("chalet")), total.getLong("income"));
+			});
+
+			var operations = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, DAILY_COLLECTION);
+			for (var day : days) {
+				var query = Query.query(Criteria.where("_id.date").is(day.date()).and("_id.chalet").is(day.chalet()));
+				var income = totals.get(day);
+				if (income == null) {
+					operations.remove(query);
+				} else {
+					operations.upsert(query, new Update().set("income", income).unset("run"));
+				}
+			}
+			operations.execute();
+		}
+	}
+
+	/**
+	 * Matches the reservations in the reservation collection and in every archive collection, and
+	 * continues with the given stages.
+	 */
+	private Aggregation pipeline(Criteria reservations, AggregationOperation... stages) {
+		var operations = new ArrayList<AggregationOperation>();
+		operations.add(Aggregation.match(reservations));
+		archive.collections().forEach(collection -> operations.add(UnionWithOperation.unionWith(collection)
+				.pipeline(Aggregation.match(reservations))
+				.mapFieldsTo(ReservationEntity.class)));
+		operations.addAll(List.of(stages));
+		return Aggregation.newAggregation(operations);
+	}
+
+	private static AggregationOperation month() {
+		return Aggregation.project("price")
+				.and(DateOperators.DateToString.dateOf("date")
+						.toString("%Y-%m")
+						.withTimezone(DateOperators.Timezone.valueOf(ZoneId.systemDefault().getId())))
+				.as("month");
+	}
+
+	private static MergeOperation merge(String collection) {
+		return Aggregation.merge()
+				.intoCollection(collection)
+				.whenMatched(MergeOperation.WhenDocumentsMatch.replaceDocument())
+				.whenDocumentsDontMatch(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+				.build();
+	}
+
+	private static LocalDate toLocalDate(Document id) {
+		return id.getDate("date").toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+
+	private record Day(LocalDate date, String chalet) {}
+}
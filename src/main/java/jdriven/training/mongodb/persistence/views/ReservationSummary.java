@@ -0,0 +1,17 @@
+package jdriven.training.mongodb.persistence.views;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * The fields of a reservation shown in our list screens, without the guests and damages.
+ */
+public record ReservationSummary(
+		UUID id,
+		LocalDate date,
+		String booker,
+		String chalet,
+		Long price
+) {
+	public static final String[] FIELDS = {"date", "booker", "chalet", "price"};
+}
@@ -0,0 +1,197 @@
+package jdriven.training.mongodb;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClients;
+import com.mongodb.lang.Nullable;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a locally installed mongod for tests and benchmarks, on machines where containers cannot be
+ * pulled. It is used instead of a container when -Dmongodb.local.binary points to a mongod binary,
+ * for example by running ./gradlew test -Pmongodb.local.binary=/usr/bin/mongod. Further properties:
+ * <ul>
+ *     <li>mongodb.local.db-path, under which each instance gets a fresh directory, /dev/shm by default
+ *     such that data lives in memory</li>
+ *     <li>mongodb.local.cache-size-gb, the WiredTiger cache size, 0.25 by default</li>
+ *     <li>mongodb.local.replica-set, whether to run as replica set of one like the container does, which
+ *     change streams and transactions require, true by default</li>
+ * </ul>
+ */
+public class LocalMongod implements AutoCloseable {
+
+	public static final String BINARY_PROPERTY = "mongodb.local.binary";
+
+	private static final String REPLICA_SET = "rs0";
+	private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+
+	private final Path binary;
+	private final Path dbPath;
+	private final double cacheSizeGb;
+	private final boolean replicaSet;
+	private final int port;
+	private Process process;
+	private Path directory;
+
+	public LocalMongod(Path binary, Path dbPath, double cacheSizeGb, boolean replicaSet) {
+		this.binary = binary;
+		this.dbPath = dbPath;
+		this.cacheSizeGb = cacheSizeGb;
+		this.replicaSet = replicaSet;
+		this.port = freePort();
+	}
+
+	/**
+	 * The local mongod configured by the system properties, or null when none is configured.
+	 */
+	@Nullable
+	public static LocalMongod fromSystemProperties() {
+		var binary = System.getProperty(BINARY_PROPERTY);
+		if (binary == null || binary.isBlank()) {
+			return null;
+		}
+		var shm = Path.of("/dev/shm");
+		var defaultDbPath = Files.isDirectory(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+		return new LocalMongod(
+				Path.of(binary),
+				Path.of(System.getProperty("mongodb.local.db-path", defaultDbPath.toString())),
+				Double.parseDouble(System.getProperty("mongodb.local.cache-size-gb", "0.25")),
+				Boolean.parseBoolean(System.getProperty("mongodb.local.replica-set", "true"))
+		);
+	}
+
+	public synchronized void start() {
+		if (process != null) {
+			return;
+		}
+		try {
+			directory = Files.createTempDirectory(Files.createDirectories(dbPath), "mongod-");
+			var command = new ArrayList<>(List.of(
+					binary.toString(),
+					"--dbpath", directory.toString(),
+					"--port", String.valueOf(port),
+					"--bind_ip", "127.0.0.1",
+					"--wiredTigerCacheSizeGB", String.valueOf(cacheSizeGb),
+					"--nounixsocket"
+			));
+			if (replicaSet) {
+				command.addAll(List.of("--replSet", REPLICA_SET));
+			}
+			process = new ProcessBuilder(command)
+					.redirectErrorStream(true)
+					.redirectOutput(directory.resolve("mongod.log").toFile())
+					.start();
+			awaitStarted();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not start " + binary, e);
+		}
+	}
+
+	public String getConnectionString() {
+		return "mongodb://127.0.0.1:" + port;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (process == null) {
+			return;
+		}
+		process.destroy();
+		try {
+			if (!process.waitFor(10, TimeUnit.SECONDS)) {
+				process.destroyForcibly().waitFor();
+			}
+		} catch (InterruptedException e) {
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+		process = null;
+		delete(directory);
+	}
+
+	/**
+	 * Deletes the data directory, which on tmpfs would otherwise keep occupying memory.
+	 */
+	private static void delete(Path directory) {
+		try (var paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not delete " + directory, e);
+		}
+	}
+
+	/**
+	 * Waits until mongod accepts connections and, as replica set, has elected itself primary.
+	 */
+	private void awaitStarted() {
+		var deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+		try (var client = MongoClients.create(getConnectionString() + "/?serverSelectionTimeoutMS=500")) {
+			var admin = client.getDatabase("admin");
+			var initiated = false;
+			while (true) {
+				if (!process.isAlive()) {
+					throw failure("mongod stopped during startup");
+				}
+				try {
+					if (replicaSet && !initiated) {
+						admin.runCommand(new Document("replSetInitiate", new Document("_id", REPLICA_SET)
+								.append("members", List.of(new Document("_id", 0).append("host", "127.0.0.1:" + port)))));
+						initiated = true;
+					}
+					var hello = admin.runCommand(new Document("hello", 1));
+					if (!replicaSet || hello.getBoolean("isWritablePrimary", false)) {
+						return;
+					}
+				} catch (MongoException e) {
+					// Not accepting connections yet, or still electing a primary
+				}
+				if (System.nanoTime() > deadline) {
+					throw failure("mongod did not start within " + STARTUP_TIMEOUT);
+				}
+				sleep();
+			}
+		}
+	}
+
+	/**
+	 * Stops mongod, and describes why it failed with the end of its log, as the log is deleted too.
+	 */
+	private IllegalStateException failure(String reason) {
+		var log = "";
+		try (var lines = Files.lines(directory.resolve("mongod.log"))) {
+			var all = lines.toList();
+			log = String.join("\n", all.subList(Math.max(0, all.size() - 20), all.size()));
+		} catch (IOException | UncheckedIOException e) {
+			log = "(log unavailable: " + e.getMessage() + ")";
+		}
+		close();
+		return new IllegalStateException(reason + ", mongod logged:\n" + log);
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while starting mongod", e);
+		}
+	}
+
+	private static int freePort() {
+		try (var socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not find a free port for mongod", e);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package jdriven.training.mongodb;
+
+import jdriven.training.mongodb.persistence.ReservationAvailability;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.views.ReservationCheckinView;
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+
+/**
+ * Base of our tests against MongoDB. All test classes share one {@link TestMongoDBContainer}, which is
+ * started once and stopped when the JVM exits. Each test class still gets an application context of
+ * its own, since our beans keep state such as caches and availability. Reservations and their
+ * check-in lists are removed after each test, other collections are cleaned up by the tests using
+ * them.
+ */
+@SpringBootTest
+@DirtiesContext
+public abstract class MongoDbTest {
+
+	protected static final MongoDBContainer mongoContainer = new TestMongoDBContainer()
+			.withEnv("MONGO_INITDB_DATABASE", "test");
+
+	static {
+		mongoContainer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(mongoContainer::stop, "test-mongodb-stop"));
+	}
+
+	@Autowired
+	protected MongoTemplate mongo;
+
+	@DynamicPropertySource
+	static void register(DynamicPropertyRegistry registry) {
+		registry.add("mongodb.url", mongoContainer::getConnectionString);
+		registry.add("mongodb.database", () -> "test");
+	}
+
+	@AfterEach
+	void clearReservations() {
+		mongo.findAllAndRemove(new Query(), ReservationEntity.class);
+		mongo.remove(new Query(), ReservationCheckinView.COLLECTION);
+		mongo.remove(new Query(), ReservationAvailability.CLAIMS);
+	}
+}
@@ -0,0 +1,44 @@
+package jdriven.training.mongodb;
+
+import org.testcontainers.containers.MongoDBContainer;
+
+/**
+ * The mongo:6.0.3 container our tests run against, or a {@link LocalMongod} when one is configured,
+ * such that the tests also run on machines without Docker.
+ */
+public class TestMongoDBContainer extends MongoDBContainer {
+
+	private final LocalMongod local = LocalMongod.fromSystemProperties();
+
+	public TestMongoDBContainer() {
+		super("mongo:6.0.3");
+	}
+
+	@Override
+	public void start() {
+		if (local == null) {
+			super.start();
+		} else {
+			local.start();
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (local == null) {
+			super.stop();
+		} else {
+			local.close();
+		}
+	}
+
+	@Override
+	public String getConnectionString() {
+		return local == null ? super.getConnectionString() : local.getConnectionString();
+	}
+
+	@Override
+	public String getReplicaSetUrl(String databaseName) {
+		return local == null ? super.getReplicaSetUrl(databaseName) : local.getConnectionString() + "/" + databaseName;
+	}
+}
@@ -0,0 +1,98 @@
+package jdriven.training.mongodb.config;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.connection.ServerType;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.assertj.core.api.InstanceOfAssertFactories;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MongoCommandMetricsTest {
+
+	@Test
+	void shape_hidesValues() {
+		var command = BsonDocument.parse("""
+				{find: "reservation", filter: {booker: "thomas", $or: [{price: {$gt: 300}}, {guests: {$in: ["kai", "jack"]}}]},
+				 sort: {price: -1}, limit: 10, $db: "test"}""");
+
+		var shape = MongoCommandMetrics.shape("find", command);
+
+		assertThat(shape).isEqualTo(BsonDocument.parse("""
+				{find: "reservation", filter: {booker: "?", $or: [{price: {$gt: "?"}}, {guests: {$in: "?"}}]}, sort: {price: -1}}"""));
+	}
+
+	@Test
+	void shape_ofBulkUpdate_onlyShapesFirstStatement() {
+		var command = BsonDocument.parse("""
+				{update: "reservation", updates: [{q: {_id: 1}, u: {$set: {booker: "tomas"}}}, {q: {_id: 2}, u: {$set: {booker: "anouk"}}}]}""");
+
+		var shape = MongoCommandMetrics.shape("update", command);
+
+		assertThat(shape).isEqualTo(BsonDocument.parse("""
+				{update: "reservation", statements: "2", q: {_id: "?"}}"""));
+	}
+
+	@Test
+	void shape_ofInsert_isNull() {
+		assertThat(MongoCommandMetrics.shape("insert", BsonDocument.parse("{insert: 'reservation', documents: []}"))).isNull();
+	}
+
+	@Test
+	void commandSucceeded_countsCommandsPerNode() {
+		var registry = new SimpleMeterRegistry();
+		var metrics = new MongoCommandMetrics(registry, Duration.ofSeconds(1));
+
+		metrics.commandSucceeded(succeeded("aggregate", "node-2:27017", ServerType.REPLICA_SET_SECONDARY));
+		metrics.commandSucceeded(succeeded("aggregate", "node-2:27017", ServerType.REPLICA_SET_SECONDARY));
+		metrics.commandSucceeded(succeeded("insert", "node-1:27017", ServerType.REPLICA_SET_PRIMARY));
+
+		assertThat(registry.get("mongodb.driver.commands.served").tags("command", "aggregate", "role", "secondary", "server", "node-2:27017").counter().count())
+				.isEqualTo(2);
+		assertThat(registry.get("mongodb.driver.commands.served").tags("command", "insert", "role", "primary", "server", "node-1:27017").counter().count())
+				.isEqualTo(1);
+	}
+
+	@Test
+	void commandStarted_keepsQueriesOnly() {
+		var metrics = new MongoCommandMetrics(new SimpleMeterRegistry(), Duration.ofSeconds(1));
+
+		metrics.commandStarted(started(1, "find", "{find: 'reservation', filter: {booker: 'thomas'}}"));
+		metrics.commandStarted(started(2, "insert", "{insert: 'reservation', documents: []}"));
+
+		assertThat(metrics).extracting("commands").asInstanceOf(InstanceOfAssertFactories.MAP).containsOnlyKeys(1);
+	}
+
+	@Test
+	void commandStarted_withoutThreshold_keepsNothing() {
+		var metrics = new MongoCommandMetrics(new SimpleMeterRegistry(), Duration.ZERO);
+
+		metrics.commandStarted(started(1, "find", "{find: 'reservation', filter: {booker: 'thomas'}}"));
+
+		assertThat(metrics).extracting("commands").asInstanceOf(InstanceOfAssertFactories.MAP).isEmpty();
+	}
+
+	private static CommandStartedEvent started(int requestId, String command, String body) {
+		return new CommandStartedEvent(null, requestId, connection("node-1:27017", ServerType.REPLICA_SET_PRIMARY), "test", command, BsonDocument.parse(body));
+	}
+
+	private static CommandSucceededEvent succeeded(String command, String server, ServerType type) {
+		return new CommandSucceededEvent(null, 1, connection(server, type), command, new BsonDocument("ok", new BsonInt32(1)), 1_000);
+	}
+
+	private static ConnectionDescription connection(String server, ServerType type) {
+		return new ConnectionDescription(new ConnectionId(new ServerId(new ClusterId(), new ServerAddress(server))),
+				17, type, 1000, 16 * 1024 * 1024, 48 * 1024 * 1024, List.of());
+	}
+}
@@ -0,0 +1,75 @@
+package jdriven.training.mongodb.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MongoDbPropertiesTest {
+
+	@Test
+	void defaults_useNoCompression() throws IOException {
+		var properties = bind();
+
+		assertThat(properties.network().compressors()).isEmpty();
+		assertThat(properties.network().heartbeatFrequency()).isEqualTo(Duration.ofSeconds(10));
+		assertThat(properties.pool().maxIdleTime()).isZero();
+		assertThat(properties.resilience().hedging().enabled()).isFalse();
+	}
+
+	@Test
+	void latency_keepsWarmConnections() throws IOException {
+		var properties = bind("latency");
+
+		assertThat(properties.network().compressors()).isEmpty();
+		assertThat(properties.pool().minSize()).isEqualTo(50);
+		assertThat(properties.pool().maxWaitTime()).isEqualTo(Duration.ofMillis(500));
+		assertThat(properties.resilience().hedging().enabled()).isTrue();
+	}
+
+	@Test
+	void throughput_compressesWithSnappy() throws IOException {
+		var properties = bind("throughput");
+
+		assertThat(properties.network().compressors()).containsExactly("snappy", "zstd", "zlib");
+		assertThat(properties.pool().maxSize()).isEqualTo(200);
+		assertThat(limits(properties)).isLessThanOrEqualTo(properties.pool().maxSize());
+	}
+
+	@Test
+	void batchJob_compressesWithZstd() throws IOException {
+		var properties = bind("batch-job");
+
+		assertThat(properties.network().compressors()).containsExactly("zstd", "zlib");
+		assertThat(properties.pool().maxIdleTime()).isEqualTo(Duration.ofMinutes(1));
+		assertThat(properties.resilience().hedging().enabled()).isFalse();
+		assertThat(limits(properties)).isLessThanOrEqualTo(properties.pool().maxSize());
+	}
+
+	private static int limits(MongoDbProperties properties) {
+		var execution = properties.execution();
+		return execution.maxConcurrentReads() + execution.maxConcurrentWrites() + execution.maxConcurrentAggregations();
+	}
+
+	/**
+	 * Binds application.yml, overridden by the given profiles, the way Spring Boot would.
+	 */
+	private static MongoDbProperties bind(String... profiles) throws IOException {
+		var environment = new StandardEnvironment();
+		var loader = new YamlPropertySourceLoader();
+		environment.getPropertySources().addFirst(loader.load("application", new ClassPathResource("application.yml")).get(0));
+		for (var profile : List.of(profiles)) {
+			var name = "application-" + profile + ".yml";
+			environment.getPropertySources().addFirst(loader.load(name, new ClassPathResource(name)).get(0));
+		}
+		return new Binder(ConfigurationPropertySources.get(environment)).bind("mongodb", MongoDbProperties.class).get();
+	}
+}
@@ -0,0 +1,45 @@
+package jdriven.training.mongodb.persistence;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PreparedDocumentTest {
+
+	private final MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+
+	PreparedDocumentTest() {
+		converter.afterPropertiesSet();
+	}
+
+	@Test
+	void bind_convertsParametersLikeMongoTemplate() {
+		var date = LocalDate.of(2023, 1, 1);
+		var price = new Document("$gt", 0);
+		var prepared = new PreparedDocument(new Document("price", price)
+				.append("date", PreparedDocument.parameter(0))
+				.append("chalet", new Document("$eq", PreparedDocument.parameter(1))));
+
+		var bound = prepared.bind(converter, new Object[]{date, "80C"});
+
+		assertThat(bound).isEqualTo(new Document("price", new Document("$gt", 0))
+				.append("date", Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant()))
+				.append("chalet", new Document("$eq", "80C")));
+		assertThat(bound.get("price")).isSameAs(price);
+	}
+
+	@Test
+	void bind_withoutParameters_reusesTemplate() {
+		var template = new Document("$group", new Document("_id", "$date"));
+
+		assertThat(new PreparedDocument(template).bind(converter, new Object[0])).isSameAs(template);
+	}
+}
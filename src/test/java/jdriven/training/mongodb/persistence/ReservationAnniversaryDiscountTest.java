@@ -0,0 +1,75 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ReservationAnniversaryDiscountTest extends MongoDbTest {
+
+	private static final LocalDate DATE = LocalDate.of(2023, 1, 1);
+
+	@Autowired
+	private ReservationAnniversaryDiscount discount;
+
+	@AfterEach
+	void clear() {
+		mongo.remove(new Query(), ReservationAnniversaryDiscount.CHECKPOINT_COLLECTION);
+	}
+
+	@Test
+	void apply_discountsEligibleReservationsInBatches() {
+		var eligibleWithInsurance = mongo.save(reservationForBirthday(DATE, 325, false, true));
+		var ineligibleWithInsurance = mongo.save(reservationForBirthday(DATE, 275, false, true));
+		var eligibleWithoutInsurance = mongo.save(reservationForBirthday(DATE, 275, false, false));
+		var alsoEligibleWithoutInsurance = mongo.save(reservationForBirthday(DATE, 250, false, false));
+		var eligibleButHasPaid = mongo.save(reservationForBirthday(DATE, 275, true, false));
+		var eligibleButOtherDate = mongo.save(reservationForBirthday(DATE.minusDays(1), 275, false, false));
+
+		var progress = discount.apply(DATE, 2);
+
+		assertThat(progress).isEqualTo(new ReservationAnniversaryDiscount.Progress(DATE, 3, 2, true));
+		assertThat(price(eligibleWithInsurance)).isEqualTo(275);
+		assertThat(price(ineligibleWithInsurance)).isEqualTo(275);
+		assertThat(price(eligibleWithoutInsurance)).isEqualTo(225);
+		assertThat(price(alsoEligibleWithoutInsurance)).isEqualTo(200);
+		assertThat(price(eligibleButHasPaid)).isEqualTo(275);
+		assertThat(price(eligibleButOtherDate)).isEqualTo(275);
+	}
+
+	@Test
+	void apply_neverDiscountsTwice() {
+		var reservation = mongo.save(reservationForBirthday(DATE, 400, false, false));
+
+		discount.apply(DATE);
+		assertThat(discount.apply(DATE).discounted()).isEqualTo(1);
+
+		// as if the run crashed before its checkpoint was written
+		mongo.remove(new Query(), ReservationAnniversaryDiscount.CHECKPOINT_COLLECTION);
+		assertThat(discount.apply(DATE).discounted()).isZero();
+
+		assertThat(price(reservation)).isEqualTo(350);
+	}
+
+	private long price(ReservationEntity reservation) {
+		return mongo.findById(reservation.id(), ReservationEntity.class).price();
+	}
+
+	private static ReservationEntity reservationForBirthday(LocalDate date, long price, boolean hasPaid, boolean hasInsurance) {
+		return ReservationFixtures.reservation()
+				.price(price)
+				.date(date)
+				.chalet("120B")
+				.booker("alex")
+				.hasPaid(hasPaid)
+				.hasInsurance(hasInsurance)
+				.build();
+	}
+}
@@ -0,0 +1,86 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+		"mongodb.archive.enabled=true",
+		"mongodb.archive.horizon=1y",
+		"mongodb.archive.batch-size=2",
+		"mongodb.archive.pause=0ms"
+})
+class ReservationArchiveTest extends MongoDbTest {
+
+	private static final LocalDate TODAY = LocalDate.now();
+	private static final LocalDate OLD = TODAY.minusYears(3);
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationArchive archive;
+
+	@AfterEach
+	void clear() {
+		mongo.getCollectionNames().stream()
+				.filter(name -> name.startsWith(ReservationArchive.COLLECTION_PREFIX))
+				.forEach(mongo::dropCollection);
+	}
+
+	@Test
+	void archive_movesReservationsBeforeHorizon() throws InterruptedException {
+		var old = mongo.save(reservation("thomas", OLD, 300));
+		var older = mongo.save(reservation("anouk", OLD.minusYears(1), 200));
+		var recent = mongo.save(reservation("rebecca", TODAY, 100));
+
+		assertThat(archive.archive()).isEqualTo(2);
+
+		assertThat(mongo.findAll(ReservationEntity.class)).containsExactly(recent);
+		assertThat(mongo.findAll(ReservationEntity.class, ReservationArchive.collection(OLD.getYear()))).containsExactly(old);
+		assertThat(mongo.findAll(ReservationEntity.class, ReservationArchive.collection(OLD.getYear() - 1))).containsExactly(older);
+		assertThat(repository.find(old.id())).contains(old);
+		assertThat(repository.find(recent.id())).contains(recent);
+	}
+
+	@Test
+	void dateQueries_combineArchiveAndCurrentReservations() throws InterruptedException {
+		var archived = mongo.save(reservation("thomas", OLD, 300));
+		archive.archive();
+		var notYetArchived = mongo.save(reservation("anouk", OLD, 400));
+
+		assertThat(repository.queryExample_mostExpensive(OLD)).containsExactly(notYetArchived, archived);
+		assertThat(repository.pipelineExample_checkinList(OLD).bookers()).containsExactlyInAnyOrder("thomas", "anouk");
+	}
+
+	@Test
+	void delete_removesFromArchive() throws InterruptedException {
+		var old = mongo.save(reservation("thomas", OLD, 300));
+		archive.archive();
+
+		repository.delete(old.id());
+
+		assertThat(repository.find(old.id())).isEmpty();
+	}
+
+	@Test
+	void delete_removesCopyOfReservationBeingMoved() {
+		var old = mongo.save(reservation("thomas", OLD, 300));
+		mongo.insert(old, ReservationArchive.collection(OLD.getYear()));
+
+		repository.delete(old.id());
+
+		assertThat(repository.find(old.id())).isEmpty();
+		assertThat(mongo.findAll(ReservationEntity.class, ReservationArchive.collection(OLD.getYear()))).isEmpty();
+	}
+
+	private static ReservationEntity reservation(String booker, LocalDate date, long price) {
+		return ReservationFixtures.reservation().price(price).date(date).booker(booker).build();
+	}
+}
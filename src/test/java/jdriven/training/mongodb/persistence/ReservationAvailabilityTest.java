@@ -0,0 +1,150 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ReservationAvailabilityTest extends MongoDbTest {
+
+	private static final LocalDate DATE = LocalDate.of(2023, 7, 14);
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationAvailability availability;
+
+	@AfterEach
+	void clear() {
+		mongo.findAll(ReservationEntity.class).forEach(reservation -> repository.delete(reservation.id()));
+	}
+
+	@Test
+	void book_refusesBookedChalet() {
+		var booked = repository.book(entry("80A", DATE));
+
+		assertThat(booked).isPresent();
+		assertThat(repository.book(entry("80A", DATE))).isEmpty();
+		assertThat(repository.book(entry("80A", DATE.plusDays(1)))).isPresent();
+		assertThat(mongo.count(Query.query(Criteria.where("chalet").is("80A").and("date").is(DATE)), ReservationEntity.class)).isOne();
+
+		repository.delete(booked.get().id());
+
+		assertThat(availability.isAvailable("80A", DATE)).isTrue();
+		assertThat(repository.book(entry("80A", DATE))).isPresent();
+	}
+
+	@Test
+	void book_refusesChaletDayClaimedByOtherNode() {
+		mongo.insert(claim("80I", UUID.randomUUID(), Instant.now()), ReservationAvailability.CLAIMS);
+
+		assertThat(availability.isAvailable("80I", DATE)).isTrue();
+		assertThat(repository.book(entry("80I", DATE))).isEmpty();
+		assertThat(availability.isAvailable("80I", DATE)).isTrue();
+		assertThat(mongo.count(Query.query(Criteria.where("chalet").is("80I")), ReservationEntity.class)).isZero();
+	}
+
+	@Test
+	void book_takesOverAbandonedClaim() {
+		mongo.insert(claim("80J", UUID.randomUUID(), Instant.now().minus(Duration.ofMinutes(5))), ReservationAvailability.CLAIMS);
+
+		var booked = repository.book(entry("80J", DATE));
+
+		assertThat(booked).isPresent();
+		var claim = mongo.findById("80J/" + DATE, Document.class, ReservationAvailability.CLAIMS);
+		assertThat(claim.get("reservation")).isEqualTo(booked.get().id());
+
+		repository.delete(booked.get().id());
+		assertThat(mongo.findById("80J/" + DATE, Document.class, ReservationAvailability.CLAIMS)).isNull();
+	}
+
+	@Test
+	void freeChalets_returnsChaletsAvailableOnEachDay() {
+		repository.save(entry("80B", DATE));
+		repository.save(entry("80C", DATE.plusDays(3)));
+
+		assertThat(availability.freeChalets(List.of("80D", "80C", "80B"), DATE, DATE.plusDays(2))).containsExactly("80D", "80C");
+		assertThat(availability.freeChalets(List.of("80D", "80C", "80B"), DATE.plusDays(1), DATE.plusDays(3))).containsExactly("80D", "80B");
+	}
+
+	@Test
+	void isAvailable_followsWritesOfOtherNodes() throws InterruptedException {
+		var other = mongo.save(reservation("80E", DATE));
+		awaitAvailable("80E", false);
+
+		mongo.remove(other);
+		awaitAvailable("80E", true);
+	}
+
+	@Test
+	void isAvailable_followsReservationsMovedByOtherNodes() throws InterruptedException {
+		var other = mongo.save(reservation("80F", DATE));
+		awaitAvailable("80F", false);
+
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(other.id())), new Update().set("chalet", "80G"), ReservationEntity.class);
+		awaitAvailable("80G", false);
+		awaitAvailable("80F", true);
+	}
+
+	@Test
+	void release_keepsChaletDayBeingBooked() {
+		assertThat(availability.reserve("80H", DATE)).isTrue();
+
+		availability.release("80H", DATE);
+		assertThat(availability.isAvailable("80H", DATE)).isFalse();
+
+		availability.cancel("80H", DATE);
+		assertThat(availability.isAvailable("80H", DATE)).isTrue();
+	}
+
+	private void awaitAvailable(String chalet, boolean expected) throws InterruptedException {
+		var deadline = System.currentTimeMillis() + 10_000;
+		while (availability.isAvailable(chalet, DATE) != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertThat(availability.isAvailable(chalet, DATE)).isEqualTo(expected);
+	}
+
+	private static Document claim(String chalet, UUID reservation, Instant claimedAt) {
+		return new Document("_id", chalet + "/" + DATE)
+				.append("reservation", reservation)
+				.append("claimedAt", Date.from(claimedAt));
+	}
+
+	private static ReservationEntry entry(String chalet, LocalDate date) {
+		return ReservationFixtures.entry()
+				.price(250L)
+				.date(date)
+				.chalet(chalet)
+				.booker("thomas")
+				.guests(List.of("anouk"))
+				.build();
+	}
+
+	private static ReservationEntity reservation(String chalet, LocalDate date) {
+		return ReservationFixtures.reservation()
+				.price(250L)
+				.date(date)
+				.chalet(chalet)
+				.booker("thomas")
+				.guests(List.of("anouk"))
+				.damages(List.of())
+				.build();
+	}
+}
@@ -0,0 +1,44 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "mongodb.cache.enabled=true")
+class ReservationCacheTest extends MongoDbTest {
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationCache cache;
+
+	@AfterEach
+	void clear() {
+		cache.evictAll();
+	}
+
+	@Test
+	void find_servesSavedReservationsFromCache() {
+		var saved = repository.save(ReservationFixtures.entry().build());
+		var hits = cache.stats().hitCount();
+
+		assertThat(repository.find(saved.id())).contains(saved);
+		assertThat(cache.stats().hitCount()).isEqualTo(hits + 1);
+	}
+
+	@Test
+	void find_reflectsLocalUpdatesAndDeletes() {
+		var saved = repository.save(ReservationFixtures.entry().build());
+
+		repository.updateExample_bookerCorrection(saved.id(), "jan");
+		assertThat(repository.find(saved.id())).hasValueSatisfying(found -> assertThat(found.booker()).isEqualTo("jan"));
+
+		repository.delete(saved.id());
+		assertThat(repository.find(saved.id())).isEmpty();
+	}
+}
@@ -0,0 +1,87 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.config.MongoDbProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReservationCircuitBreakerTest {
+
+	private static final MongoDbProperties.CircuitBreaker SETTINGS = new MongoDbProperties.CircuitBreaker(0.5, 4, 10, Duration.ofSeconds(10), 2);
+
+	private final AtomicLong clock = new AtomicLong();
+	private final ReservationCircuitBreaker breaker = new ReservationCircuitBreaker(SETTINGS, clock::get);
+
+	@Test
+	void opensOnceFailureRateIsReached() {
+		call(false);
+		call(true);
+		call(false);
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.CLOSED);
+
+		call(true);
+
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.OPEN);
+		assertThat(breaker.tryAcquire()).isFalse();
+	}
+
+	@Test
+	void onlyConsidersLastCallsOfWindow() {
+		for (int i = 0; i < 7; i++) {
+			call(false);
+		}
+		for (int i = 0; i < 4; i++) {
+			call(true);
+		}
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.CLOSED);
+
+		call(true);
+
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	void halfOpen_closesAfterSuccessfulTrials() {
+		open();
+		clock.addAndGet(Duration.ofSeconds(10).toNanos());
+
+		assertThat(breaker.tryAcquire()).isTrue();
+		assertThat(breaker.tryAcquire()).isTrue();
+		assertThat(breaker.tryAcquire()).isFalse();
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.HALF_OPEN);
+
+		breaker.record(false);
+		breaker.record(false);
+
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.CLOSED);
+		assertThat(breaker.tryAcquire()).isTrue();
+	}
+
+	@Test
+	void halfOpen_opensAgainOnFailedTrial() {
+		open();
+		clock.addAndGet(Duration.ofSeconds(10).toNanos());
+
+		assertThat(breaker.tryAcquire()).isTrue();
+		breaker.record(true);
+
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.OPEN);
+		clock.addAndGet(Duration.ofSeconds(9).toNanos());
+		assertThat(breaker.tryAcquire()).isFalse();
+	}
+
+	private void open() {
+		for (int i = 0; i < 4; i++) {
+			call(true);
+		}
+		assertThat(breaker.state()).isEqualTo(ReservationCircuitBreaker.State.OPEN);
+	}
+
+	private void call(boolean failed) {
+		assertThat(breaker.tryAcquire()).isTrue();
+		breaker.record(failed);
+	}
+}
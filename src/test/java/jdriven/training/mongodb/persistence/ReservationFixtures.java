@@ -0,0 +1,43 @@
+package jdriven.training.mongodb.persistence;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reservations for our tests. Everything a test does not care about is filled in, so a test only sets
+ * what it asserts on, for example {@code entry().booker("thomas").build()}.
+ */
+public final class ReservationFixtures {
+
+	public static final LocalDate DATE = LocalDate.of(2023, 1, 1);
+
+	private ReservationFixtures() {
+	}
+
+	public static ReservationEntry.ReservationEntryBuilder entry() {
+		return ReservationEntry.builder()
+				.price(120L)
+				.date(DATE)
+				.chalet("80C")
+				.booker("booker")
+				.guests(List.of("kai", "jack"))
+				.hasPaid(false)
+				.hasInsurance(false);
+	}
+
+	/**
+	 * A reservation with a random id, to be inserted as is.
+	 */
+	public static ReservationEntity.ReservationEntityBuilder reservation() {
+		return ReservationEntity.builder()
+				.id(UUID.randomUUID())
+				.price(120L)
+				.date(DATE)
+				.chalet("80C")
+				.booker("booker")
+				.guests(List.of("kai", "jack"))
+				.hasPaid(false)
+				.hasInsurance(false);
+	}
+}
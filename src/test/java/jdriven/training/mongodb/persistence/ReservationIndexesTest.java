@@ -0,0 +1,154 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Records every command the repository sends to the reservation collection and explains it, to
+ * verify that no query falls back to a collection scan.
+ */
+@SpringBootTest
+class ReservationIndexesTest extends MongoDbTest {
+
+	private static final LocalDate DATE = LocalDate.of(2023, 1, 1);
+	private static final Set<String> EXPLAINABLE = Set.of("find", "aggregate", "update", "delete", "count");
+
+	@Autowired
+	private CommandRecorder recorder;
+
+	private ReservationRepository repository;
+
+	@BeforeEach
+	void setUp() {
+		repository = new ReservationRepository(mongo, UUID::randomUUID);
+		for (int i = 0; i < 20; i++) {
+			repository.save(ReservationFixtures.entry()
+					.price(100L + i)
+					.date(DATE.plusDays(i % 3))
+					.chalet("chalet-" + i % 4)
+					.booker("booker-" + i)
+					.hasInsurance(i % 2 == 0)
+					.build());
+		}
+		recorder.commands.clear();
+	}
+
+	@Test
+	void queriesUseIndexes() {
+		var first = repository.findPageByDate(null, 5);
+		repository.findPageByDate(first.get(4), 5);
+		repository.findPageById(first.get(0).id(), 5);
+		repository.queryExample_mostExpensive(DATE);
+		repository.updateExample_bookerCorrection(first.get(0).id(), "jan");
+		repository.pipelineExample_checkinList(DATE);
+
+		assertThat(recorder.commands).isNotEmpty();
+		assertThat(recorder.commands).allSatisfy(command ->
+				assertThat(stages(explain(command), "COLLSCAN"))
+						.as("collection scan in %s", command.toJson())
+						.isZero());
+	}
+
+	@Test
+	void searchByShortPrefix_walksIndexInOrder() {
+		var first = repository.search("BO", true, 3, null);
+		repository.search("bo", true, 3, first.nextToken());
+		repository.search("bo", false, 3, null);
+
+		assertThat(recorder.commands).hasSize(3);
+		assertThat(recorder.commands).allSatisfy(command ->
+				assertThat(stages(explain(command), "SORT"))
+						.as("sort in memory in %s", command.toJson())
+						.isZero());
+	}
+
+	@Test
+	void searchBySelectivePrefix_seeksToBookers() {
+		var first = repository.search("BOOKER-1", true, 3, null);
+		repository.search("booker-1", true, 3, first.nextToken());
+
+		assertThat(recorder.commands).hasSize(2);
+		assertThat(recorder.commands).allSatisfy(command -> {
+			var explained = explain(command);
+			assertThat(stages(explained, "COLLSCAN")).as("collection scan in %s", command.toJson()).isZero();
+			assertThat(explained.toJson()).as("index of %s", command.toJson()).contains(ReservationIndexes.BOOKER_SEARCH);
+		});
+	}
+
+	@Test
+	void summaryQueriesAreCovered() {
+		var first = repository.findSummaryPageByDate(null, 5);
+		repository.findSummaryPageByDate(first.get(4), 5);
+		repository.querySummary_mostExpensive(DATE);
+
+		assertThat(recorder.commands).hasSize(3);
+		assertThat(recorder.commands).allSatisfy(command ->
+				assertThat(stages(explain(command), "FETCH"))
+						.as("documents fetched in %s", command.toJson())
+						.isZero());
+	}
+
+	private Document explain(BsonDocument command) {
+		var explainable = new BsonDocument();
+		command.forEach((key, value) -> {
+			if (!key.startsWith("$") && !key.equals("lsid")) {
+				explainable.append(key, value);
+			}
+		});
+		return mongo.getDb().runCommand(new Document("explain", explainable).append("verbosity", "queryPlanner"));
+	}
+
+	private static int stages(Object node, String stage) {
+		if (node instanceof Document document) {
+			var own = stage.equals(document.get("stage")) ? 1 : 0;
+			return own + document.values().stream().mapToInt(value -> stages(value, stage)).sum();
+		}
+		if (node instanceof List<?> list) {
+			return list.stream().mapToInt(value -> stages(value, stage)).sum();
+		}
+		return 0;
+	}
+
+	@TestConfiguration
+	static class RecorderConfig {
+
+		@Bean
+		CommandRecorder commandRecorder() {
+			return new CommandRecorder();
+		}
+	}
+
+	static class CommandRecorder implements CommandListener {
+
+		private final List<BsonDocument> commands = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void commandStarted(CommandStartedEvent event) {
+			BsonValue collection = event.getCommand().get(event.getCommandName());
+			if (EXPLAINABLE.contains(event.getCommandName())
+					&& collection != null
+					&& collection.isString()
+					&& collection.asString().getValue().equals("reservation")) {
+				commands.add(event.getCommand().clone());
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import jdriven.training.mongodb.persistence.views.ReservationInsuranceClaim;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+		"mongodb.archive.enabled=true",
+		"mongodb.archive.horizon=1y"
+})
+class ReservationInsuranceClaimsTest extends MongoDbTest {
+
+	private static final LocalDate DATE = LocalDate.of(2023, 1, 1);
+
+	@Autowired
+	private ReservationInsuranceClaims claims;
+
+	@Autowired
+	private ReservationArchive archive;
+
+	@AfterEach
+	void clear() {
+		mongo.getCollectionNames().stream()
+				.filter(name -> name.startsWith(ReservationArchive.COLLECTION_PREFIX))
+				.forEach(mongo::dropCollection);
+	}
+
+	@Test
+	void stream_mergesShardsInChaletAndDateOrder() {
+		mongo.save(reservation("110B", DATE.plusDays(3), true, "broken lamp"));
+		mongo.save(reservation("100B", DATE.plusDays(2), true, "broken tile"));
+		mongo.save(reservation("100B", DATE, true, "broken window", "broken sink"));
+		mongo.save(reservation("100B", DATE.plusDays(1), false, "broken vacuum"));
+		mongo.save(reservation("120B", DATE, true, "broken door"));
+		mongo.save(reservation("110B", DATE.plusDays(10), true, "broken chair"));
+
+		try (var result = claims.stream(List.of("110B", "100B"), DATE, DATE.plusDays(3), 1, 2)) {
+			assertThat(result.toList()).containsExactly(
+					new ReservationInsuranceClaim(DATE.plusDays(3), "110B", "broken lamp", true),
+					new ReservationInsuranceClaim(DATE, "100B", "broken window", true),
+					new ReservationInsuranceClaim(DATE, "100B", "broken sink", true),
+					new ReservationInsuranceClaim(DATE.plusDays(2), "100B", "broken tile", true)
+			);
+		}
+	}
+
+	@Test
+	void stream_withoutShards_matchesShardedResult() {
+		for (int i = 0; i < 20; i++) {
+			mongo.save(reservation("chalet-" + (i % 7), DATE.plusDays(i % 5), true, "damage-" + i));
+		}
+		var chalets = List.of("chalet-6", "chalet-1", "chalet-3", "chalet-0");
+
+		try (var sharded = claims.stream(chalets, DATE, DATE.plusDays(4), 1, 1);
+			 var whole = claims.stream(chalets, DATE, DATE.plusDays(4), chalets.size(), 5)) {
+			assertThat(sharded.toList()).containsExactlyElementsOf(whole.toList());
+		}
+	}
+
+	@Test
+	void stream_includesArchivedReservations() throws InterruptedException {
+		var old = LocalDate.now().minusYears(3);
+		mongo.save(reservation("100B", old, true, "broken window"));
+		mongo.save(reservation("100B", old.minusYears(1), true, "broken sink"));
+		archive.archive();
+		mongo.save(reservation("100B", old, true, "broken door"));
+
+		try (var result = claims.stream(List.of("100B"), old.minusYears(1), old, 1, 400)) {
+			assertThat(result.toList()).containsExactly(
+					new ReservationInsuranceClaim(old.minusYears(1), "100B", "broken sink", true),
+					new ReservationInsuranceClaim(old, "100B", "broken door", true),
+					new ReservationInsuranceClaim(old, "100B", "broken window", true)
+			);
+		}
+	}
+
+	private static ReservationEntity reservation(String chalet, LocalDate date, boolean hasInsurance, String... damages) {
+		return ReservationFixtures.reservation()
+				.date(date)
+				.chalet(chalet)
+				.guests(List.of("jan", "rebecca"))
+				.hasPaid(true)
+				.hasInsurance(hasInsurance)
+				.damages(List.of(damages))
+				.build();
+	}
+}
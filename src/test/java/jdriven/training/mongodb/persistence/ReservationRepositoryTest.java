@@ -1,20 +1,12 @@
 package jdriven.training.mongodb.persistence;
 
-import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.AfterEach;
-import org.junit.jupiter.api.BeforeAll;
+import jdriven.training.mongodb.MongoDbTest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.test.context.DynamicPropertyRegistry;
-import org.springframework.test.context.DynamicPropertySource;
-import org.testcontainers.containers.MongoDBContainer;
-import org.testcontainers.junit.jupiter.Container;
-import org.testcontainers.junit.jupiter.Testcontainers;
 import jdriven.training.mongodb.persistence.views.ReservationIncomeSummary;
+import jdriven.training.mongodb.persistence.views.ReservationSummary;
 
 import java.time.LocalDate;
 import java.time.Year;
@@ -26,46 +18,98 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
-@Testcontainers
 @SpringBootTest
-class ReservationRepositoryTest {
+class ReservationRepositoryTest extends MongoDbTest {
 
 	private static final LocalDate DATE = LocalDate.of(2023, 1, 1);
 
-	@Autowired
-	private MongoTemplate mongo;
-
 	private ReservationRepository repository;
 
-	@Container
-	static MongoDBContainer mongoContainer = new MongoDBContainer("mongo:6.0.3")
-			.withEnv("MONGO_INITDB_DATABASE", "test");
+	@BeforeEach
+	void setUp() {
+		repository = new ReservationRepository(mongo, UUID::randomUUID);
+	}
+
+	@Test
+	void saveAll() {
+		var entries = IntStream.range(0, 25).mapToObj(ReservationRepositoryTest::entryWithPrice);
+
+		var result = repository.saveAll(entries, 10);
 
-	@DynamicPropertySource
-	static void register(DynamicPropertyRegistry registry) {
-		registry.add("mongodb.url", mongoContainer::getConnectionString);
-		registry.add("mongodb.database", () -> "test");
+		assertThat(result.inserted()).isEqualTo(25);
+		assertThat(result.hasFailures()).isFalse();
+		assertThat(mongo.count(new Query(), ReservationEntity.class)).isEqualTo(25);
 	}
 
-	@BeforeAll
-	static void setup() {
-		mongoContainer.start();
+	@Test
+	void saveAll_reportsFailedBatches() {
+		var duplicateId = UUID.randomUUID();
+		var duplicating = new ReservationRepository(mongo, () -> duplicateId);
+		var entries = IntStream.range(0, 3).mapToObj(ReservationRepositoryTest::entryWithPrice);
+
+		var result = duplicating.saveAll(entries, 10);
+
+		assertThat(result.inserted()).isEqualTo(1);
+		assertThat(result.failures()).singleElement().satisfies(failure -> {
+			assertThat(failure.attempted()).isEqualTo(3);
+			assertThat(failure.errors()).hasSize(2);
+		});
 	}
 
-	@AfterAll
-	static void tearDown() {
-		mongoContainer.stop();
+	@Test
+	void stream() {
+		var stored = IntStream.range(0, 25)
+				.mapToObj(ReservationRepositoryTest::reservationWithPrice)
+				.map(mongo::save)
+				.collect(Collectors.toList());
+
+		try (var result = repository.stream(10)) {
+			assertThat(result).containsExactlyInAnyOrderElementsOf(stored);
+		}
 	}
 
-	@BeforeEach
-	void setUp() {
-		repository = new ReservationRepository(mongo, UUID::randomUUID);
+	@Test
+	void findPageByDate() {
+		var rebecca = mongo.save(reservationWithBookerAndDate("rebecca", DATE.minusDays(1)));
+		var thomas = mongo.save(reservationWithBookerAndDate("thomas", DATE));
+		var anouk = mongo.save(reservationWithBookerAndDate("anouk", DATE));
+		var john = mongo.save(reservationWithBookerAndDate("john", DATE.plusDays(1)));
+
+		var first = repository.findPageByDate(null, 2);
+		assertThat(first).hasSize(2);
+		assertThat(first.get(0)).isEqualTo(rebecca);
+
+		var second = repository.findPageByDate(first.get(1), 2);
+		assertThat(second).hasSize(2);
+		assertThat(second.get(1)).isEqualTo(john);
+		assertThat(List.of(first.get(1), second.get(0))).containsExactlyInAnyOrder(thomas, anouk);
+
+		assertThat(repository.findPageByDate(second.get(1), 2)).isEmpty();
 	}
 
-	@AfterEach
-	void clear() {
-		mongo.findAllAndRemove(new Query(), ReservationEntity.class);
+	@Test
+	void search() {
+		var tommy = mongo.save(reservationWithBookerAndDate("Tommy", DATE.minusDays(1)));
+		var tom = mongo.save(reservationWithBookerAndDate("tom", DATE));
+		var tomas = mongo.save(reservationWithBookerAndDate("Tomas", DATE.plusDays(1)));
+		mongo.save(reservationWithBookerAndDate("anouk", DATE));
+
+		var first = repository.search("TOM", false, 2, null);
+		assertThat(first.reservations()).containsExactly(tomas, tom);
+		assertThat(first.nextToken()).isNotNull();
+
+		var second = repository.search("TOM", false, 2, first.nextToken());
+		assertThat(second.reservations()).containsExactly(tommy);
+		assertThat(second.nextToken()).isNull();
+
+		var all = repository.search("t", true, 3, null);
+		assertThat(all.reservations()).containsExactly(tommy, tom, tomas);
+		assertThat(all.nextToken()).isNull();
+
+		assertThatThrownBy(() -> repository.search("t", true, 3, first.nextToken()))
+				.isInstanceOf(IllegalArgumentException.class);
 	}
 
 	@Test
@@ -85,6 +129,24 @@ class ReservationRepositoryTest {
 		assertThat(result).isEqualTo(topTen);
 	}
 
+	@Test
+	void querySummary_mostExpensive() {
+		var topTen = IntStream.range(10, 20)
+				.mapToObj(ReservationRepositoryTest::reservationWithPrice)
+				.map(mongo::save)
+				.map(reservation -> new ReservationSummary(reservation.id(), reservation.date(), reservation.booker(), reservation.chalet(), reservation.price()))
+				.collect(Collectors.toList());
+
+		IntStream.range(1, 10)
+				.mapToObj(ReservationRepositoryTest::reservationWithPrice)
+				.forEach(mongo::save);
+
+		var result = repository.querySummary_mostExpensive(DATE);
+
+		Collections.reverse(topTen);
+		assertThat(result).isEqualTo(topTen);
+	}
+
 	@Test
 	void queryExercise_damageClaims() {
 		var withDamagesAndInsurance = reservationWithDamages("120A", true, List.of("broken window"));
@@ -233,68 +295,28 @@ class ReservationRepositoryTest {
 	}
 
 	private static ReservationEntity randomReservation() {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
-				.price(120L)
-				.date(DATE)
-				.chalet("chalet")
-				.booker("booker")
-				.guests(List.of("kai", "jack"))
-				.hasPaid(true)
-				.hasInsurance(false)
-				.damages(null)
-				.build();
+		return ReservationFixtures.reservation().chalet("chalet").hasPaid(true).build();
+	}
+
+	private static ReservationEntry entryWithPrice(long price) {
+		return ReservationFixtures.entry().price(price).build();
 	}
 
 	private static ReservationEntity reservationWithPrice(long price) {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
-				.price(price)
-				.date(DATE)
-				.chalet("80C")
-				.booker("booker")
-				.guests(List.of("kai", "jack"))
-				.hasPaid(true)
-				.hasInsurance(false)
-				.damages(null)
-				.build();
+		return ReservationFixtures.reservation().price(price).hasPaid(true).build();
 	}
 
 	private static ReservationEntity reservationWithGuests(String... guests) {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
-				.price(120L)
-				.date(DATE)
-				.chalet("80C")
-				.booker("booker")
-				.guests(Arrays.asList(guests))
-				.hasPaid(true)
-				.hasInsurance(false)
-				.damages(null)
-				.build();
+		return ReservationFixtures.reservation().guests(Arrays.asList(guests)).hasPaid(true).build();
 	}
 
 	private static ReservationEntity reservationWithBooker(String booker) {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
-				.price(120L)
-				.date(DATE)
-				.chalet("80C")
-				.booker(booker)
-				.guests(List.of("kai", "jack"))
-				.hasPaid(true)
-				.hasInsurance(false)
-				.damages(null)
-				.build();
+		return ReservationFixtures.reservation().booker(booker).hasPaid(true).build();
 	}
 
 	private static ReservationEntity reservationWithInsuranceAndChaletAndGuests(String chalet, String... damages) {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
-				.price(120L)
-				.date(DATE)
+		return ReservationFixtures.reservation()
 				.chalet(chalet)
-				.booker("booker")
 				.guests(List.of("jan", "rebecca"))
 				.hasPaid(true)
 				.hasInsurance(true)
@@ -303,27 +325,14 @@ class ReservationRepositoryTest {
 	}
 
 	private static ReservationEntity reservationWithBookerAndDate(String booker, LocalDate date) {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
-				.price(120L)
-				.date(date)
-				.chalet("80C")
-				.booker(booker)
-				.guests(List.of("kai", "jack"))
-				.hasPaid(true)
-				.hasInsurance(false)
-				.damages(null)
-				.build();
+		return ReservationFixtures.reservation().date(date).booker(booker).hasPaid(true).build();
 	}
 
 	private static ReservationEntity reservationWithDamages(String chalet, boolean hasInsurance, List<String> damages) {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
+		return ReservationFixtures.reservation()
 				.price(20L)
-				.date(DATE)
 				.chalet(chalet)
 				.booker("alex")
-				.guests(List.of("kai", "jack"))
 				.hasPaid(true)
 				.hasInsurance(hasInsurance)
 				.damages(damages)
@@ -331,18 +340,13 @@ class ReservationRepositoryTest {
 	}
 
 	private static ReservationEntity reservationForBirthday(LocalDate date, long price, boolean hasPaid, boolean hasInsurance) {
-		return ReservationEntity.builder()
-				.id(UUID.randomUUID())
+		return ReservationFixtures.reservation()
 				.price(price)
 				.date(date)
 				.chalet("120B")
 				.booker("alex")
-				.guests(List.of("kai", "jack"))
 				.hasPaid(hasPaid)
 				.hasInsurance(hasInsurance)
-				.damages(null)
 				.build();
 	}
-
-
 }
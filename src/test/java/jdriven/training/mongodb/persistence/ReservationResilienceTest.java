@@ -0,0 +1,46 @@
+package jdriven.training.mongodb.persistence;
+
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mongodb.core.MongoAction;
+import org.springframework.data.mongodb.core.MongoActionOperation;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReservationResilienceTest {
+
+	@Test
+	void failedOnMongo_countsFailuresOfMongo() {
+		assertThat(ReservationResilience.failedOnMongo(new QueryTimeoutException("Too slow"))).isTrue();
+		assertThat(ReservationResilience.failedOnMongo(new DataAccessResourceFailureException("Gone",
+				new MongoSocketReadException("Reset", new ServerAddress())))).isTrue();
+	}
+
+	@Test
+	void failedOnMongo_ignoresCallersAndRejections() {
+		assertThat(ReservationResilience.failedOnMongo(new IllegalArgumentException("Invalid"))).isFalse();
+		assertThat(ReservationResilience.failedOnMongo(new ReservationRejectedException("No permit"))).isFalse();
+		assertThat(ReservationResilience.failedOnMongo(new IllegalStateException(new ReservationRejectedException("Circuit breaker is open")))).isFalse();
+	}
+
+	@Test
+	void writeConcern_passesRemainingBudgetAsWtimeout() {
+		var action = new MongoAction(WriteConcern.MAJORITY, MongoActionOperation.SAVE, "reservations", ReservationEntity.class, null, null);
+		assertThat(ReservationBudget.writeConcern(action)).isEqualTo(WriteConcern.MAJORITY);
+
+		var previous = ReservationBudget.enter(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+		try {
+			var resolved = ReservationBudget.writeConcern(action);
+			assertThat(resolved.getWString()).isEqualTo("majority");
+			assertThat(resolved.getWTimeout(TimeUnit.MILLISECONDS)).isBetween(1, 5_000);
+		} finally {
+			ReservationBudget.exit(previous);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+		"mongodb.schema.compact=true",
+		"mongodb.schema.migrating=true",
+		"mongodb.schema.batch-size=2",
+		"mongodb.schema.pause=0ms"
+})
+class ReservationSchemaMigrationTest extends MongoDbTest {
+
+	private static final LocalDate DATE = LocalDate.of(2023, 8, 1);
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationSchemaMigration migration;
+
+	@Test
+	void save_storesCompactNames() {
+		var saved = repository.save(entry("thomas", 300));
+
+		var stored = mongo.findById(saved.id(), Document.class, "reservation");
+		assertThat(stored).containsKeys("p", "d", "c", "b", "g", "pd", "in", "bl").doesNotContainKeys("price", "date", "booker");
+		assertThat(repository.find(saved.id())).contains(saved);
+	}
+
+	@Test
+	void migrate_renamesVerboseReservations() throws InterruptedException {
+		var ids = List.of(verbose("thomas", 300), verbose("anouk", 200), verbose("rebecca", 100));
+		var compact = repository.save(entry("kai", 250));
+
+		assertThat(migration.migrate()).isEqualTo(3);
+		assertThat(migration.migrate()).isZero();
+
+		var stored = mongo.find(new Query(), Document.class, "reservation");
+		assertThat(stored).hasSize(4).allSatisfy(document -> assertThat(document).containsKey("b").doesNotContainKey("booker"));
+		assertThat(repository.find(ids.get(0))).hasValueSatisfying(reservation -> assertThat(reservation.booker()).isEqualTo("thomas"));
+		assertThat(repository.find(compact.id())).contains(compact);
+	}
+
+	@Test
+	void migrate_addsMissingLowercaseBooker() throws InterruptedException {
+		var id = verbose("Thomas", 300);
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(id)), new Update().unset("bookerLowercase"), "reservation");
+
+		assertThat(migration.migrate()).isEqualTo(2);
+
+		assertThat(mongo.findById(id, Document.class, "reservation")).containsEntry("bl", "thomas");
+		assertThat(repository.search("tho", true, 10, null).reservations()).extracting(ReservationEntity::id).containsExactly(id);
+	}
+
+	@Test
+	void queries_workOnCompactLayout() throws InterruptedException {
+		verbose("thomas", 300);
+		verbose("anouk", 200);
+		migration.migrate();
+
+		assertThat(repository.queryExample_mostExpensive(DATE)).extracting(ReservationEntity::booker).containsExactly("thomas", "anouk");
+		assertThat(repository.querySummary_mostExpensive(DATE)).extracting(summary -> summary.booker()).containsExactly("thomas", "anouk");
+		assertThat(repository.pipelineExample_checkinList(DATE).bookers()).containsExactlyInAnyOrder("thomas", "anouk");
+		assertThat(repository.search("tho", true, 10, null).reservations()).extracting(ReservationEntity::booker).containsExactly("thomas");
+	}
+
+	@Test
+	void queries_findUnmigratedReservations() {
+		verbose("thomas", 300);
+		var compact = repository.save(entry("kai", 250));
+		verbose("anouk", 200);
+
+		assertThat(repository.queryExample_mostExpensive(DATE)).extracting(ReservationEntity::booker).containsExactly("thomas", "kai", "anouk");
+		assertThat(repository.querySummary_mostExpensive(DATE)).extracting(summary -> summary.booker()).containsExactly("thomas", "kai", "anouk");
+		assertThat(repository.pipelineExample_checkinList(DATE).bookers()).containsExactlyInAnyOrder("thomas", "kai", "anouk");
+		assertThat(repository.search("tho", true, 10, null).reservations()).extracting(ReservationEntity::booker).containsExactly("thomas");
+
+		var first = repository.findSummaryPageByDate(null, 2);
+		var second = repository.findSummaryPageByDate(first.get(1), 2);
+		assertThat(first).hasSize(2);
+		assertThat(second).hasSize(1);
+		assertThat(second.get(0).id()).isNotIn(first.get(0).id(), first.get(1).id());
+		assertThat(repository.find(compact.id())).contains(compact);
+	}
+
+	@Test
+	void bookerCorrection_keepsUnmigratedLayout() throws InterruptedException {
+		var id = verbose("thomas", 300);
+
+		repository.updateExample_bookerCorrection(id, "Tomas");
+
+		assertThat(mongo.findById(id, Document.class, "reservation")).containsEntry("booker", "Tomas").doesNotContainKey("b");
+		migration.migrate();
+		assertThat(repository.find(id)).hasValueSatisfying(reservation -> assertThat(reservation.booker()).isEqualTo("Tomas"));
+		assertThat(repository.search("tom", true, 10, null).reservations()).extracting(ReservationEntity::id).containsExactly(id);
+	}
+
+	@Test
+	void indexes_areCreatedForBothLayouts() {
+		var names = mongo.indexOps(ReservationEntity.class).getIndexInfo().stream().map(IndexInfo::getName).toList();
+
+		assertThat(names).contains(ReservationIndexes.DATE_PRICE, ReservationIndexes.named(ReservationIndexes.DATE_PRICE, ReservationFields.VERBOSE));
+	}
+
+	@Test
+	void indexes_areCreatedOnCompactNames() {
+		var index = mongo.indexOps(ReservationEntity.class).getIndexInfo().stream()
+				.filter(info -> info.getName().equals(ReservationIndexes.DATE_PRICE))
+				.map(IndexInfo::getIndexFields)
+				.findFirst()
+				.orElseThrow();
+
+		assertThat(index).extracting(IndexField::getKey).containsExactly("d", "p", "_id", "b", "c");
+	}
+
+	/**
+	 * Stores a reservation the way it was stored before the compact layout.
+	 */
+	private UUID verbose(String booker, long price) {
+		var id = UUID.randomUUID();
+		mongo.insert(new Document("_id", id)
+				.append("price", price)
+				.append("date", Date.from(DATE.atStartOfDay(ZoneId.systemDefault()).toInstant()))
+				.append("chalet", "80A")
+				.append("booker", booker)
+				.append("guests", List.of("jack"))
+				.append("hasPaid", false)
+				.append("hasInsurance", false)
+				.append("bookerLowercase", booker), "reservation");
+		return id;
+	}
+
+	private static ReservationEntry entry(String booker, long price) {
+		return ReservationFixtures.entry().price(price).date(DATE).chalet("80B").booker(booker).guests(List.of("anouk")).build();
+	}
+}
@@ -0,0 +1,69 @@
+package jdriven.training.mongodb.persistence;
+
+import jdriven.training.mongodb.MongoDbTest;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+		"mongodb.write-behind.enabled=true",
+		"mongodb.write-behind.max-delay=1h",
+		"mongodb.write-behind.max-pending=5"
+})
+class ReservationWriteBehindTest extends MongoDbTest {
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationWriteBehind writeBehind;
+
+	@AfterEach
+	void clear() {
+		writeBehind.flush();
+	}
+
+	@Test
+	void flush_mergesUpdatesPerReservation() {
+		var reservation = repository.save(entry());
+
+		writeBehind.correctBooker(reservation.id(), "tomas");
+		writeBehind.includeGuest(reservation.id(), "anouk");
+		writeBehind.fileDamage(reservation.id(), "broken window");
+		writeBehind.correctBooker(reservation.id(), "Thomas");
+
+		assertThat(writeBehind.pending()).isEqualTo(4);
+		assertThat(repository.find(reservation.id()).orElseThrow().booker()).isEqualTo("thomas");
+
+		writeBehind.flush();
+
+		var result = repository.find(reservation.id()).orElseThrow();
+		assertThat(writeBehind.pending()).isZero();
+		assertThat(result.booker()).isEqualTo("Thomas");
+		assertThat(mongo.findById(result.id(), Document.class, "reservation")).containsEntry("bookerLowercase", "thomas");
+		assertThat(result.guests()).containsExactly("kai", "jack", "anouk");
+		assertThat(result.damages()).containsExactly("broken window");
+		assertThat(writeBehind.coalescingRatio()).isGreaterThan(1.0);
+	}
+
+	@Test
+	void submit_flushesWhenFull() {
+		var reservation = repository.save(entry());
+
+		List.of("a", "b", "c", "d", "e").forEach(guest -> writeBehind.includeGuest(reservation.id(), guest));
+
+		assertThat(writeBehind.pending()).isZero();
+		assertThat(repository.find(reservation.id()).orElseThrow().guests())
+				.containsExactly("kai", "jack", "a", "b", "c", "d", "e");
+	}
+
+	private static ReservationEntry entry() {
+		return ReservationFixtures.entry().booker("thomas").build();
+	}
+}
@@ -0,0 +1,92 @@
+package jdriven.training.mongodb.persistence.changes;
+
+import jdriven.training.mongodb.MongoDbTest;
+import com.mongodb.client.model.changestream.OperationType;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationEntry;
+import jdriven.training.mongodb.persistence.ReservationFixtures;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "mongodb.change-streams.max-wait=100ms")
+class ReservationChangeStreamsTest extends MongoDbTest {
+
+	private static final BlockingQueue<ReservationChange> RECEIVED = new LinkedBlockingQueue<>();
+
+	@TestConfiguration
+	static class Consumers {
+
+		@Bean
+		ReservationChangeConsumer paymentsAndDamages() {
+			return new ReservationChangeConsumer() {
+				@Override
+				public String name() {
+					return "payments-and-damages";
+				}
+
+				@Override
+				public ReservationChangeFilter filter() {
+					return ReservationChangeFilter.operations(OperationType.INSERT, OperationType.UPDATE).fields("damages", "hasPaid");
+				}
+
+				@Override
+				public void accept(List<ReservationChange> changes) {
+					RECEIVED.addAll(changes);
+				}
+			};
+		}
+	}
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationChangeStreams changeStreams;
+
+	@AfterEach
+	void clear() {
+		RECEIVED.clear();
+	}
+
+	@Test
+	void consumer_receivesSelectedChanges() throws InterruptedException {
+		var reservation = repository.save(entry());
+		repository.updateExample_bookerCorrection(reservation.id(), "tomas");
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(reservation.id())), new Update().set("hasPaid", true), ReservationEntity.class);
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(reservation.id())), new Update().push("damages", "broken window"), ReservationEntity.class);
+
+		var inserted = RECEIVED.poll(10, TimeUnit.SECONDS);
+		assertThat(inserted.operation()).isEqualTo(OperationType.INSERT);
+		assertThat(inserted.id()).isEqualTo(reservation.id());
+
+		var paid = RECEIVED.poll(10, TimeUnit.SECONDS);
+		assertThat(paid.operation()).isEqualTo(OperationType.UPDATE);
+		assertThat(paid.changedFields()).containsExactly("hasPaid");
+
+		var damaged = RECEIVED.poll(10, TimeUnit.SECONDS);
+		assertThat(damaged.changedFields()).containsExactly("damages");
+		assertThat(damaged.reservation().damages()).containsExactly("broken window");
+
+		assertThat(RECEIVED.poll(1, TimeUnit.SECONDS)).isNull();
+		assertThat(changeStreams.token("payments-and-damages")).isNotNull();
+	}
+
+	private static ReservationEntry entry() {
+		return ReservationFixtures.entry().booker("thomas").build();
+	}
+}
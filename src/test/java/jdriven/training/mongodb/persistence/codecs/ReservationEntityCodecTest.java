@@ -0,0 +1,132 @@
+package jdriven.training.mongodb.persistence.codecs;
+
+import com.mongodb.MongoClientSettings;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationFields;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReservationEntityCodecTest {
+
+	private static final ReservationEntity RESERVATION = ReservationEntity.builder()
+			.id(UUID.randomUUID())
+			.price(325L)
+			.date(LocalDate.of(2023, 1, 1))
+			.chalet("120B")
+			.booker("alex")
+			.guests(List.of("kai", "jack"))
+			.hasPaid(false)
+			.hasInsurance(true)
+			.damages(List.of("broken window"))
+			.build();
+
+	private static final Codec<Document> DOCUMENT_CODEC = CodecRegistries
+			.withUuidRepresentation(MongoClientSettings.getDefaultCodecRegistry(), UuidRepresentation.STANDARD)
+			.get(Document.class);
+
+	private final ReservationEntityCodec codec = new ReservationEntityCodec();
+
+	@Test
+	void decode_readsWhatSpringDataWrites() {
+		var document = new Document();
+		converter(List.of()).write(RESERVATION, document);
+
+		var buffer = new BasicOutputBuffer();
+		DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+
+		assertThat(decode(buffer.toByteArray())).isEqualTo(RESERVATION);
+	}
+
+	@Test
+	void encode_isReadBySpringData() {
+		var buffer = new BasicOutputBuffer();
+		codec.encode(new BsonBinaryWriter(buffer), RESERVATION, EncoderContext.builder().build());
+
+		var document = DOCUMENT_CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())), DecoderContext.builder().build());
+
+		assertThat(converter(List.of()).read(ReservationEntity.class, document)).isEqualTo(RESERVATION);
+		assertThat(converter(ReservationConverters.all()).read(ReservationEntity.class, document)).isEqualTo(RESERVATION);
+	}
+
+	@Test
+	void compact_matchesSpringDataLayout() {
+		var compact = new ReservationEntityCodec(ReservationFields.COMPACT);
+		var buffer = new BasicOutputBuffer();
+		compact.encode(new BsonBinaryWriter(buffer), RESERVATION, EncoderContext.builder().build());
+
+		var document = DOCUMENT_CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())), DecoderContext.builder().build());
+		var written = new Document();
+		converter(List.of(), ReservationFields.COMPACT).write(RESERVATION, written);
+		written.remove("_class");
+		// Added by ReservationSearchField when saving
+		written.put("bl", "alex");
+
+		assertThat(document).isEqualTo(written).containsKeys("p", "d", "in", "dm", "bl").doesNotContainKey("price");
+		assertThat(compact.decode(new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())), DecoderContext.builder().build())).isEqualTo(RESERVATION);
+		assertThat(converter(ReservationConverters.all(ReservationFields.COMPACT), ReservationFields.COMPACT).read(ReservationEntity.class, document)).isEqualTo(RESERVATION);
+	}
+
+	@Test
+	void decode_readsOtherLayout() {
+		var buffer = new BasicOutputBuffer();
+		codec.encode(new BsonBinaryWriter(buffer), RESERVATION, EncoderContext.builder().build());
+
+		var compact = new ReservationEntityCodec(ReservationFields.COMPACT);
+		var document = DOCUMENT_CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())), DecoderContext.builder().build());
+
+		assertThat(compact.decode(new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())), DecoderContext.builder().build())).isEqualTo(RESERVATION);
+		assertThat(converter(ReservationConverters.all(ReservationFields.COMPACT), ReservationFields.COMPACT).read(ReservationEntity.class, document)).isEqualTo(RESERVATION);
+	}
+
+	@Test
+	void decode_skipsMissingAndUnknownFields() {
+		var document = new Document("_id", RESERVATION.id()).append("_class", "reservation").append("damages", null);
+		var buffer = new BasicOutputBuffer();
+		DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+
+		var decoded = decode(buffer.toByteArray());
+
+		assertThat(decoded.id()).isEqualTo(RESERVATION.id());
+		assertThat(decoded.damages()).isNull();
+	}
+
+	private ReservationEntity decode(byte[] bson) {
+		return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+	}
+
+	private static MappingMongoConverter converter(List<?> converters) {
+		return converter(converters, ReservationFields.VERBOSE);
+	}
+
+	private static MappingMongoConverter converter(List<?> converters, ReservationFields fields) {
+		var conversions = new MongoCustomConversions(converters);
+		var mappingContext = new MongoMappingContext();
+		mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+		mappingContext.setFieldNamingStrategy(fields.namingStrategy());
+		mappingContext.afterPropertiesSet();
+
+		var converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+		converter.setCustomConversions(conversions);
+		converter.afterPropertiesSet();
+		return converter;
+	}
+}
@@ -0,0 +1,126 @@
+package jdriven.training.mongodb.persistence.views;
+
+import jdriven.training.mongodb.MongoDbTest;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationEntry;
+import jdriven.training.mongodb.persistence.ReservationFixtures;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "mongodb.change-streams.max-wait=100ms")
+class ReservationCheckinViewTest extends MongoDbTest {
+
+	private static final LocalDate DATE = LocalDate.of(2023, 1, 1);
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationCheckinView view;
+
+	@Test
+	void find_followsWrites() throws InterruptedException {
+		var thomas = repository.save(entryWithBooker("thomas"));
+		var anouk = repository.save(entryWithBooker("anouk"));
+		repository.save(entryWithBooker("anouk"));
+
+		repository.updateExample_bookerCorrection(thomas.id(), "tomas");
+		repository.delete(anouk.id());
+
+		var result = await(DATE, bookers -> Set.copyOf(bookers).equals(Set.of("tomas", "anouk")));
+		assertThat(result.date()).isEqualTo(DATE);
+		assertThat(result.bookers()).containsExactlyInAnyOrder("tomas", "anouk");
+	}
+
+	@Test
+	void find_followsMovedReservations() throws InterruptedException {
+		var thomas = repository.save(entryWithBooker("thomas"));
+		await(DATE, bookers -> bookers.contains("thomas"));
+
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(thomas.id())), new Update().set("date", DATE.plusDays(1)), ReservationEntity.class);
+
+		assertThat(await(DATE.plusDays(1), bookers -> bookers.contains("thomas")).bookers()).containsExactly("thomas");
+		assertThat(view.find(DATE)).isEmpty();
+	}
+
+	@Test
+	void find_ignoresIncompleteLists() throws InterruptedException {
+		repository.save(entryWithBooker("thomas"));
+		await(DATE, bookers -> bookers.contains("thomas"));
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(DATE)), new Update().unset("complete").set("entries.0.booker", "from the view"), ReservationCheckinView.COLLECTION);
+
+		assertThat(view.find(DATE)).isEmpty();
+		assertThat(repository.pipelineExample_checkinList(DATE).bookers()).containsExactly("thomas");
+	}
+
+	@Test
+	void rebuild_recomputesFromReservations() throws InterruptedException {
+		repository.save(entryWithBooker("thomas"));
+		repository.save(entryWithBooker("anouk"));
+		await(DATE, bookers -> bookers.size() == 2);
+		mongo.remove(new Query(), ReservationCheckinView.COLLECTION);
+
+		view.rebuild(DATE, DATE);
+
+		assertThat(view.find(DATE).orElseThrow().bookers()).containsExactlyInAnyOrder("thomas", "anouk");
+	}
+
+	@Test
+	void rebuild_removesDatesWithoutReservations() throws InterruptedException {
+		var thomas = repository.save(entryWithBooker("thomas"));
+		mongo.remove(Query.query(Criteria.where("_id").is(thomas.id())), ReservationEntity.class);
+		repository.save(entryWithBooker("anouk", DATE.plusDays(1)));
+		// The changes are applied in order, so thomas has been removed once anouk is listed
+		await(DATE.plusDays(1), bookers -> bookers.contains("anouk"));
+
+		view.rebuild(DATE, DATE.plusDays(1));
+
+		assertThat(view.find(DATE)).isEmpty();
+		assertThat(mongo.findById(DATE, Document.class, ReservationCheckinView.COLLECTION)).isNull();
+		assertThat(view.find(DATE.plusDays(1)).orElseThrow().bookers()).containsExactly("anouk");
+	}
+
+	@Test
+	void checkinList_readsFromView() throws InterruptedException {
+		repository.save(entryWithBooker("thomas"));
+		await(DATE, bookers -> bookers.contains("thomas"));
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(DATE)), new Update().set("entries.0.booker", "from the view"), ReservationCheckinView.COLLECTION);
+
+		assertThat(repository.pipelineExample_checkinList(DATE).bookers()).containsExactly("from the view");
+	}
+
+	/**
+	 * The check-in list of the date once its bookers match, since the view follows the change stream.
+	 */
+	private ReservationCheckin await(LocalDate date, Predicate<List<String>> bookers) throws InterruptedException {
+		var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		var list = view.find(date);
+		while (list.filter(found -> bookers.test(found.bookers())).isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(50);
+			list = view.find(date);
+		}
+		return list.orElseThrow();
+	}
+
+	private static ReservationEntry entryWithBooker(String booker) {
+		return entryWithBooker(booker, DATE);
+	}
+
+	private static ReservationEntry entryWithBooker(String booker, LocalDate date) {
+		return ReservationFixtures.entry().date(date).booker(booker).build();
+	}
+}
@@ -0,0 +1,113 @@
+package jdriven.training.mongodb.persistence.views;
+
+import jdriven.training.mongodb.MongoDbTest;
+import jdriven.training.mongodb.persistence.ReservationEntity;
+import jdriven.training.mongodb.persistence.ReservationEntry;
+import jdriven.training.mongodb.persistence.ReservationFixtures;
+import jdriven.training.mongodb.persistence.ReservationRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "mongodb.change-streams.max-wait=100ms")
+class ReservationIncomeRollupTest extends MongoDbTest {
+
+	private static final LocalDate DATE = LocalDate.of(2023, 1, 1);
+	private static final Year YEAR = Year.of(2023);
+
+	@Autowired
+	private ReservationRepository repository;
+
+	@Autowired
+	private ReservationIncomeRollup rollup;
+
+	@AfterEach
+	void clear() {
+		mongo.remove(new Query(), ReservationIncomeRollup.MONTHLY_COLLECTION);
+		mongo.remove(new Query(), ReservationIncomeRollup.DAILY_COLLECTION);
+	}
+
+	@Test
+	void totalsFollowWrites() throws InterruptedException {
+		var deleted = repository.save(entry("90C", DATE.plusDays(1), 150));
+		repository.save(entry("80C", DATE, 120));
+		repository.save(entry("80C", DATE, 200));
+		repository.save(entry("80C", DATE.plusMonths(1), 300));
+
+		repository.delete(deleted.id());
+
+		// Only reached once the delete has been applied
+		awaitMonthly(320);
+		assertThat(rollup.daily("80C", DATE, DATE.plusDays(31)))
+				.containsExactly(new ReservationChaletIncome(DATE, "80C", 320L));
+		assertThat(rollup.daily("90C", DATE, DATE.plusDays(31))).isEmpty();
+	}
+
+	@Test
+	void totalsFollowWritesOfOtherNodes() throws InterruptedException {
+		var reservation = mongo.save(ReservationFixtures.reservation().price(120L).date(DATE).chalet("80C").build());
+		awaitMonthly(120);
+
+		mongo.updateFirst(Query.query(Criteria.where("_id").is(reservation.id())), new Update().set("price", 100L), ReservationEntity.class);
+		awaitMonthly(100);
+		assertThat(rollup.daily("80C", DATE, DATE)).containsExactly(new ReservationChaletIncome(DATE, "80C", 100L));
+	}
+
+	@Test
+	void backfill_matchesIncrementalTotals() throws InterruptedException {
+		repository.save(entry("80C", DATE, 120));
+		repository.save(entry("90C", DATE.plusDays(3), 200));
+		var incremental = awaitMonthly(320);
+		var incrementalDaily = rollup.daily("90C", DATE, DATE.plusDays(31));
+		mongo.remove(new Query(), ReservationIncomeRollup.MONTHLY_COLLECTION);
+		mongo.remove(new Query(), ReservationIncomeRollup.DAILY_COLLECTION);
+
+		rollup.backfill(DATE, DATE);
+
+		assertThat(rollup.monthly(YEAR, DATE.getMonth())).contains(incremental);
+		assertThat(rollup.daily("90C", DATE, DATE.plusDays(31))).isEqualTo(incrementalDaily);
+	}
+
+	@Test
+	void backfill_replacesTotalsInPlace() throws InterruptedException {
+		repository.save(entry("80C", DATE, 120));
+		awaitMonthly(120);
+		mongo.updateFirst(Query.query(Criteria.where("_id").is("2023-01")), new Update().set("income", 1L), ReservationIncomeRollup.MONTHLY_COLLECTION);
+		mongo.insert(new Document("_id", "2023-02").append("income", 1L), ReservationIncomeRollup.MONTHLY_COLLECTION);
+
+		rollup.backfill(DATE, DATE.plusMonths(1));
+
+		assertThat(rollup.monthly(YEAR, DATE.getMonth()).orElseThrow().income()).isEqualTo(120);
+		assertThat(rollup.monthly(YEAR, Month.FEBRUARY)).isEmpty();
+	}
+
+	/**
+	 * The total of the month of DATE once it reaches the expected income, since totals follow the
+	 * change stream.
+	 */
+	private ReservationIncomeSummary awaitMonthly(long income) throws InterruptedException {
+		var deadline = System.currentTimeMillis() + 10_000;
+		var total = rollup.monthly(YEAR, DATE.getMonth());
+		while (total.map(ReservationIncomeSummary::income).filter(found -> found == income).isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+			total = rollup.monthly(YEAR, DATE.getMonth());
+		}
+		assertThat(total.orElseThrow().income()).isEqualTo(income);
+		return total.get();
+	}
+
+	private static ReservationEntry entry(String chalet, LocalDate date, long price) {
+		return ReservationFixtures.entry().price(price).date(date).chalet(chalet).build();
+	}
+}